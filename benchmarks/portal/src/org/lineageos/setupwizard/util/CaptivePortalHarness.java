@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.util;
+
+import org.lineageos.setupwizard.util.CaptivePortalProbes.Verdict;
+import org.lineageos.setupwizard.util.StandInServer.Response;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the captive portal probes against a {@link StandInServer} on loopback, once per
+ * scenario of portal and network behaviour, and reports the verdicts and the detection latency
+ * percentiles. Exits with 1 if any scenario got a verdict it should not have.
+ *
+ * <pre>
+ *   SetupWizardPortalHarness [--iterations N] [--timeout MS] [--single] [scenario ...]
+ * </pre>
+ *
+ * --timeout is the socket timeout of each probe, 2000ms by default rather than the 10000ms of
+ * the app so stalled scenarios finish in reasonable time. --single only runs the HTTP probe,
+ * like the detection did before probes raced, for comparison. The HTTPS probe is served over
+ * plain HTTP here; only its verdict rules differ.
+ */
+public class CaptivePortalHarness {
+
+    private static final String HTTP_PATH = "/generate_204";
+    private static final String HTTPS_PATH = "/https/generate_204";
+    private static final String FALLBACK_PATH = "/gen_204";
+
+    // Same size as the BackgroundExecutor the probes run on in the app
+    private static final int POOL_SIZE = 4;
+
+    private static final class Scenario {
+        final String mName;
+        final Verdict mExpected;
+        final Response mHttp;
+        final Response mHttps;
+        final Response mFallback;
+
+        Scenario(String name, Verdict expected, Response http, Response https,
+                Response fallback) {
+            mName = name;
+            mExpected = expected;
+            mHttp = http;
+            mHttps = https;
+            mFallback = fallback;
+        }
+    }
+
+    private static final Map<String, Scenario> SCENARIOS = new LinkedHashMap<>();
+
+    private static void addScenario(String name, Verdict expected, Response http,
+            Response https, Response fallback) {
+        SCENARIOS.put(name, new Scenario(name, expected, http, https, fallback));
+    }
+
+    static {
+        final Response noContent = Response.status(204);
+        final String login = "<html><body><form>Accept the terms</form></body></html>";
+        addScenario("open", Verdict.NO_PORTAL, noContent, noContent, noContent);
+        addScenario("open-congested", Verdict.NO_PORTAL,
+                noContent.delayed(200, 1500), noContent.delayed(200, 1500),
+                noContent.delayed(200, 1500));
+        addScenario("open-http-stalled", Verdict.NO_PORTAL,
+                Response.stall(), noContent.delayed(20, 60), Response.stall());
+        addScenario("redirect", Verdict.PORTAL,
+                Response.redirect("http://portal.example/login"), Response.stall(),
+                Response.redirect("http://portal.example/login"));
+        addScenario("login-page", Verdict.PORTAL,
+                Response.page(login), Response.stall(), Response.page(login));
+        addScenario("proxy-timeout", Verdict.PORTAL,
+                Response.status(408).delayed(100, 300), Response.stall(),
+                Response.status(408).delayed(100, 300));
+        addScenario("gateway-timeout", Verdict.PORTAL,
+                Response.status(504).delayed(100, 300), Response.stall(),
+                Response.status(504).delayed(100, 300));
+        addScenario("slow-portal", Verdict.PORTAL,
+                Response.redirect("http://portal.example/login").delayed(500, 3000),
+                Response.stall(), Response.redirect("http://portal.example/login"));
+        addScenario("black-hole", Verdict.INCONCLUSIVE,
+                Response.stall(), Response.stall(), Response.stall());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 20;
+        int timeoutMs = 2000;
+        boolean single = false;
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--timeout":
+                    timeoutMs = Integer.parseInt(args[++i]);
+                    break;
+                case "--single":
+                    single = true;
+                    break;
+                default:
+                    if (!SCENARIOS.containsKey(args[i])) {
+                        System.err.println("Unknown scenario " + args[i] + ", known: "
+                                + SCENARIOS.keySet());
+                        System.exit(2);
+                    }
+                    names.add(args[i]);
+            }
+        }
+        if (names.isEmpty()) {
+            names.addAll(SCENARIOS.keySet());
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(POOL_SIZE, r -> {
+            Thread thread = new Thread(r, "Probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        boolean failed = false;
+        System.out.printf("%-18s %-13s %-30s %7s %7s %7s %7s %11s%n", "scenario", "expected",
+                "verdicts", "p50", "p90", "p99", "max", "conns/reqs");
+        try (StandInServer server = new StandInServer()) {
+            for (String name : names) {
+                failed |= !run(server, executor, SCENARIOS.get(name), iterations, timeoutMs,
+                        single);
+            }
+        }
+        executor.shutdownNow();
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * @return whether every iteration got the expected verdict
+     */
+    private static boolean run(StandInServer server, ExecutorService executor,
+            Scenario scenario, int iterations, int timeoutMs, boolean single) throws Exception {
+        server.script(HTTP_PATH, scenario.mHttp);
+        server.script(HTTPS_PATH, scenario.mHttps);
+        server.script(FALLBACK_PATH, scenario.mFallback);
+        final URL httpUrl = server.getUrl(HTTP_PATH);
+        final URL httpsUrl = server.getUrl(HTTPS_PATH);
+        final URL fallbackUrl = server.getUrl(FALLBACK_PATH);
+        final int connections = server.getConnectionCount();
+        final int requests = server.getRequestCount();
+
+        final long[] latencies = new long[iterations];
+        final Map<Verdict, Integer> verdicts = new EnumMap<>(Verdict.class);
+        for (int i = 0; i < iterations; i++) {
+            final CaptivePortalProbes probes =
+                    new CaptivePortalProbes(URL::openConnection, timeoutMs);
+            probes.add(httpUrl, false);
+            if (!single) {
+                probes.add(httpsUrl, true);
+                probes.add(fallbackUrl, false);
+            }
+            final long start = System.nanoTime();
+            final Verdict verdict =
+                    probes.race(executor).get(4L * timeoutMs, TimeUnit.MILLISECONDS);
+            latencies[i] = System.nanoTime() - start;
+            verdicts.merge(verdict, 1, Integer::sum);
+        }
+
+        Arrays.sort(latencies);
+        System.out.printf("%-18s %-13s %-30s %7s %7s %7s %7s %11s%n", scenario.mName,
+                scenario.mExpected, verdicts, millis(percentile(latencies, 50)),
+                millis(percentile(latencies, 90)), millis(percentile(latencies, 99)),
+                millis(latencies[latencies.length - 1]),
+                (server.getConnectionCount() - connections) + "/"
+                        + (server.getRequestCount() - requests));
+        return verdicts.keySet().equals(EnumSet.of(scenario.mExpected));
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static String millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos) + "ms";
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in for the captive portal servers: an HTTP/1.1 server on loopback that answers each
+ * path as scripted, with a status code, a redirect or a login page, after a delay, or never
+ * at all. Connections are kept alive and counted, so connection reuse shows up as fewer
+ * connections than requests.
+ */
+final class StandInServer implements Closeable {
+
+    static final class Response {
+        final int mStatus;
+        final String mLocation;
+        final String mBody;
+        final long mMinDelayMillis;
+        final long mMaxDelayMillis;
+
+        private Response(int status, String location, String body, long minDelayMillis,
+                long maxDelayMillis) {
+            mStatus = status;
+            mLocation = location;
+            mBody = body;
+            mMinDelayMillis = minDelayMillis;
+            mMaxDelayMillis = maxDelayMillis;
+        }
+
+        static Response status(int status) {
+            return new Response(status, null, "", 0, 0);
+        }
+
+        static Response redirect(String location) {
+            return new Response(302, location, "", 0, 0);
+        }
+
+        static Response page(String body) {
+            return new Response(200, null, body, 0, 0);
+        }
+
+        /**
+         * @return a response that never comes, the socket stays open until the client leaves
+         */
+        static Response stall() {
+            return new Response(0, null, null, 0, 0);
+        }
+
+        /**
+         * @return this response, sent after a delay picked uniformly from the range
+         */
+        Response delayed(long minDelayMillis, long maxDelayMillis) {
+            return new Response(mStatus, mLocation, mBody, minDelayMillis, maxDelayMillis);
+        }
+
+        boolean isStall() {
+            return mBody == null;
+        }
+
+        long pickDelay() {
+            return mMaxDelayMillis > mMinDelayMillis
+                    ? ThreadLocalRandom.current().nextLong(mMinDelayMillis, mMaxDelayMillis + 1)
+                    : mMinDelayMillis;
+        }
+    }
+
+    private static final Response NOT_FOUND = Response.status(404);
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "StandInServer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Response> mScript = new ConcurrentHashMap<>();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    StandInServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        mExecutor.execute(this::accept);
+    }
+
+    URL getUrl(String path) throws MalformedURLException {
+        return new URL("http", mServerSocket.getInetAddress().getHostAddress(),
+                mServerSocket.getLocalPort(), path);
+    }
+
+    void script(String path, Response response) {
+        mScript.put(path, response);
+    }
+
+    int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    private void accept() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mConnectionCount.incrementAndGet();
+                mExecutor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            final InputStream in = new BufferedInputStream(s.getInputStream());
+            final OutputStream out = s.getOutputStream();
+            String requestLine;
+            while ((requestLine = readLine(in)) != null) {
+                String header;
+                do {
+                    header = readLine(in);
+                } while (header != null && !header.isEmpty());
+                mRequestCount.incrementAndGet();
+                final String[] parts = requestLine.split(" ");
+                final Response response = parts.length > 1
+                        ? mScript.getOrDefault(parts[1], NOT_FOUND) : NOT_FOUND;
+                if (response.isStall()) {
+                    while (in.read() != -1) {
+                        // Wait for the client to give up
+                    }
+                    return;
+                }
+                Thread.sleep(response.pickDelay());
+                write(out, response);
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client went away
+        }
+    }
+
+    private static void write(OutputStream out, Response response) throws IOException {
+        final byte[] body = response.mBody.getBytes(StandardCharsets.UTF_8);
+        final StringBuilder head = new StringBuilder()
+                .append("HTTP/1.1 ").append(response.mStatus).append(" Stand-in\r\n")
+                .append("Content-Length: ").append(body.length).append("\r\n")
+                .append("Connection: keep-alive\r\n");
+        if (response.mLocation != null) {
+            head.append("Location: ").append(response.mLocation).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+        out.write(body);
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                return line.toString(StandardCharsets.US_ASCII.name()).trim();
+            }
+            line.write(c);
+        }
+        return line.size() > 0 ? line.toString(StandardCharsets.US_ASCII.name()) : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+        mExecutor.shutdownNow();
+    }
+}
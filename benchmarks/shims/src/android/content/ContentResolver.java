@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.content;
+
+import android.content.res.Resources;
+import android.net.Uri;
+
+import java.io.FileNotFoundException;
+
+/**
+ * Host shim: the benchmarks never resolve resources.
+ */
+public class ContentResolver {
+
+    public static final String SCHEME_ANDROID_RESOURCE = "android.resource";
+
+    public class OpenResourceIdResult {
+        public Resources r;
+        public int id;
+    }
+
+    public OpenResourceIdResult getResourceId(Uri uri) throws FileNotFoundException {
+        throw new FileNotFoundException("No resources on the host: " + uri);
+    }
+}
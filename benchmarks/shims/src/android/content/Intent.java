@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.content;
+
+import java.net.URISyntaxException;
+
+/**
+ * Host shim: keeps the parsed intent URI as is. Parsing does a comparable amount of string
+ * scanning and allocation to the platform, but no extras handling.
+ */
+public class Intent implements Cloneable {
+
+    public static final int FLAG_GRANT_READ_URI_PERMISSION = 0x00000001;
+
+    private final String mAction;
+    private final String mUri;
+    private int mFlags;
+
+    private Intent(String action, String uri, int flags) {
+        mAction = action;
+        mUri = uri;
+        mFlags = flags;
+    }
+
+    public Intent(Intent o) {
+        this(o.mAction, o.mUri, o.mFlags);
+    }
+
+    public static Intent parseUri(String uri, int flags) throws URISyntaxException {
+        if (!uri.startsWith("intent:")) {
+            throw new URISyntaxException(uri, "Not an intent URI");
+        }
+        final int end = uri.lastIndexOf(";end");
+        if (end < 0) {
+            throw new URISyntaxException(uri, "Intent URI must end with ;end");
+        }
+        String action = null;
+        for (String part : uri.substring(uri.indexOf('#') + 1, end).split(";")) {
+            if (part.startsWith("action=")) {
+                action = part.substring("action=".length());
+            }
+        }
+        return new Intent(action, uri, flags);
+    }
+
+    public String getAction() {
+        return mAction;
+    }
+
+    public int getFlags() {
+        return mFlags;
+    }
+
+    public Intent addFlags(int flags) {
+        mFlags |= flags;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "Intent { act=" + mAction + " }";
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.content.res;
+
+import android.util.TypedValue;
+
+import java.io.InputStream;
+
+/**
+ * Host shim: the benchmarks never resolve resources.
+ */
+public class Resources {
+
+    public static class NotFoundException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public AssetManager getAssets() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void getValue(int id, TypedValue outValue, boolean resolveRefs) {
+        throw new UnsupportedOperationException();
+    }
+
+    public String getResourceTypeName(int resid) {
+        throw new UnsupportedOperationException();
+    }
+
+    public XmlResourceParser getXml(int id) {
+        throw new UnsupportedOperationException();
+    }
+
+    public InputStream openRawResource(int id) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.net;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Host shim: just enough of a URI for compiled script lookups.
+ */
+public class Uri {
+
+    private final java.net.URI mUri;
+
+    private Uri(java.net.URI uri) {
+        mUri = uri;
+    }
+
+    public static Uri parse(String uriString) {
+        return new Uri(java.net.URI.create(uriString));
+    }
+
+    public String getScheme() {
+        return mUri.getScheme();
+    }
+
+    public String getAuthority() {
+        return mUri.getAuthority();
+    }
+
+    public List<String> getPathSegments() {
+        final String path = mUri.getPath();
+        if (path == null || path.length() <= 1) {
+            return Arrays.asList();
+        }
+        return Arrays.asList(path.substring(1).split("/"));
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.os;
+
+import android.util.SparseArray;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Host shim: serializes into a growable byte array with the platform's layout for the calls
+ * used by the wizard script model, so round trips cost roughly what they cost on a device.
+ * Integers take four bytes, strings are written as UTF-16 and padded to four bytes.
+ */
+public final class Parcel {
+
+    private static final int VAL_NULL = -1;
+    private static final int VAL_STRING = 0;
+
+    private static final HashMap<String, Parcelable.Creator<?>> sCreators = new HashMap<>();
+
+    private byte[] mData = new byte[256];
+    private int mDataSize;
+    private int mDataPosition;
+
+    private Parcel() {
+    }
+
+    public static Parcel obtain() {
+        return new Parcel();
+    }
+
+    public void recycle() {
+        mDataSize = 0;
+        mDataPosition = 0;
+    }
+
+    public int dataSize() {
+        return mDataSize;
+    }
+
+    public int dataPosition() {
+        return mDataPosition;
+    }
+
+    public void setDataPosition(int pos) {
+        mDataPosition = pos;
+    }
+
+    public byte[] marshall() {
+        return Arrays.copyOf(mData, mDataSize);
+    }
+
+    public void unmarshall(byte[] data, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(data, offset, mData, 0, length);
+        mDataSize = length;
+        mDataPosition = 0;
+    }
+
+    private void ensureCapacity(int length) {
+        if (mData.length < length) {
+            mData = Arrays.copyOf(mData, Math.max(length, mData.length * 2));
+        }
+    }
+
+    public void writeInt(int val) {
+        ensureCapacity(mDataPosition + 4);
+        mData[mDataPosition++] = (byte) val;
+        mData[mDataPosition++] = (byte) (val >> 8);
+        mData[mDataPosition++] = (byte) (val >> 16);
+        mData[mDataPosition++] = (byte) (val >> 24);
+        mDataSize = Math.max(mDataSize, mDataPosition);
+    }
+
+    public int readInt() {
+        if (mDataPosition + 4 > mDataSize) {
+            return 0;
+        }
+        return (mData[mDataPosition++] & 0xff)
+                | (mData[mDataPosition++] & 0xff) << 8
+                | (mData[mDataPosition++] & 0xff) << 16
+                | (mData[mDataPosition++] & 0xff) << 24;
+    }
+
+    public void writeString(String val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
+        final int length = val.length();
+        writeInt(length);
+        // UTF-16 plus terminator, padded to four bytes
+        final int size = ((length + 1) * 2 + 3) & ~3;
+        ensureCapacity(mDataPosition + size);
+        for (int i = 0; i < length; i++) {
+            final char c = val.charAt(i);
+            mData[mDataPosition + i * 2] = (byte) c;
+            mData[mDataPosition + i * 2 + 1] = (byte) (c >> 8);
+        }
+        Arrays.fill(mData, mDataPosition + length * 2, mDataPosition + size, (byte) 0);
+        mDataPosition += size;
+        mDataSize = Math.max(mDataSize, mDataPosition);
+    }
+
+    public String readString() {
+        final int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ((mData[mDataPosition + i * 2] & 0xff)
+                    | (mData[mDataPosition + i * 2 + 1] & 0xff) << 8);
+        }
+        mDataPosition += ((length + 1) * 2 + 3) & ~3;
+        return new String(chars);
+    }
+
+    public void writeIntArray(int[] val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(val.length);
+        for (int v : val) {
+            writeInt(v);
+        }
+    }
+
+    public int[] createIntArray() {
+        final int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        final int[] array = new int[length];
+        for (int i = 0; i < length; i++) {
+            array[i] = readInt();
+        }
+        return array;
+    }
+
+    public void writeStringArray(String[] val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(val.length);
+        for (String v : val) {
+            writeString(v);
+        }
+    }
+
+    public String[] createStringArray() {
+        final int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        final String[] array = new String[length];
+        for (int i = 0; i < length; i++) {
+            array[i] = readString();
+        }
+        return array;
+    }
+
+    public <T extends Parcelable> void writeTypedArray(T[] val, int parcelableFlags) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(val.length);
+        for (T item : val) {
+            if (item != null) {
+                writeInt(1);
+                item.writeToParcel(this, parcelableFlags);
+            } else {
+                writeInt(0);
+            }
+        }
+    }
+
+    public <T> T[] createTypedArray(Parcelable.Creator<T> c) {
+        final int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        final T[] array = c.newArray(length);
+        for (int i = 0; i < length; i++) {
+            if (readInt() != 0) {
+                array[i] = c.createFromParcel(this);
+            }
+        }
+        return array;
+    }
+
+    public void writeParcelable(Parcelable p, int parcelableFlags) {
+        if (p == null) {
+            writeString(null);
+            return;
+        }
+        writeString(p.getClass().getName());
+        p.writeToParcel(this, parcelableFlags);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Parcelable> T readParcelable(ClassLoader loader) {
+        final String name = readString();
+        if (name == null) {
+            return null;
+        }
+        return (T) getCreator(name, loader).createFromParcel(this);
+    }
+
+    private static Parcelable.Creator<?> getCreator(String name, ClassLoader loader) {
+        synchronized (sCreators) {
+            Parcelable.Creator<?> creator = sCreators.get(name);
+            if (creator == null) {
+                try {
+                    Class<?> clazz = Class.forName(name, false,
+                            loader != null ? loader : Parcel.class.getClassLoader());
+                    Field field = clazz.getField("CREATOR");
+                    creator = (Parcelable.Creator<?>) field.get(null);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("No CREATOR for " + name, e);
+                }
+                sCreators.put(name, creator);
+            }
+            return creator;
+        }
+    }
+
+    public void writeSparseArray(SparseArray<Object> val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
+        final int size = val.size();
+        writeInt(size);
+        for (int i = 0; i < size; i++) {
+            writeInt(val.keyAt(i));
+            writeValue(val.valueAt(i));
+        }
+    }
+
+    public SparseArray<Object> readSparseArray(ClassLoader loader) {
+        final int size = readInt();
+        if (size < 0) {
+            return null;
+        }
+        SparseArray<Object> array = new SparseArray<>(size);
+        for (int i = 0; i < size; i++) {
+            final int key = readInt();
+            array.put(key, readValue(loader));
+        }
+        return array;
+    }
+
+    /**
+     * Only null and strings, the rest of the platform's value types is not needed here.
+     */
+    public void writeValue(Object v) {
+        if (v == null) {
+            writeInt(VAL_NULL);
+        } else if (v instanceof String) {
+            writeInt(VAL_STRING);
+            writeString((String) v);
+        } else {
+            throw new IllegalArgumentException("Unsupported value " + v.getClass());
+        }
+    }
+
+    public Object readValue(ClassLoader loader) {
+        final int type = readInt();
+        switch (type) {
+            case VAL_NULL:
+                return null;
+            case VAL_STRING:
+                return readString();
+            default:
+                throw new IllegalArgumentException("Unsupported value type " + type);
+        }
+    }
+}
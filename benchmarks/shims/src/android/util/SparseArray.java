@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.util;
+
+import java.util.Arrays;
+
+/**
+ * Host shim: int keyed map backed by sorted parallel arrays, like the platform class.
+ */
+public class SparseArray<E> implements Cloneable {
+
+    private int[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+
+    public SparseArray() {
+        this(10);
+    }
+
+    public SparseArray(int initialCapacity) {
+        mKeys = new int[Math.max(initialCapacity, 1)];
+        mValues = new Object[mKeys.length];
+    }
+
+    public E get(int key) {
+        return get(key, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(int key, E valueIfKeyNotFound) {
+        final int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+        return i >= 0 ? (E) mValues[i] : valueIfKeyNotFound;
+    }
+
+    public void put(int key, E value) {
+        int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+        if (i >= 0) {
+            mValues[i] = value;
+            return;
+        }
+        i = ~i;
+        if (mSize == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mSize * 2);
+            mValues = Arrays.copyOf(mValues, mSize * 2);
+        }
+        System.arraycopy(mKeys, i, mKeys, i + 1, mSize - i);
+        System.arraycopy(mValues, i, mValues, i + 1, mSize - i);
+        mKeys[i] = key;
+        mValues[i] = value;
+        mSize++;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int keyAt(int index) {
+        return mKeys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public E valueAt(int index) {
+        return (E) mValues[index];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < mSize; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(mKeys[i]).append('=').append(mValues[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
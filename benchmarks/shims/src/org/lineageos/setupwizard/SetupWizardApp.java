@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.lineageos.setupwizard;
+
+/**
+ * Host shim: the constants the wizardmanager model classes import from the application, so
+ * they compile without the rest of the app.
+ */
+public final class SetupWizardApp {
+
+    public static final boolean LOGV = false;
+
+    private SetupWizardApp() {
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.lineageos.setupwizard.wizardmanager;
+
+import org.lineageos.setupwizard.tools.WizardScriptCompiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Generates wizard scripts of any size, shaped like ours: a forward chain of actions where
+ * every fourth action can skip the next one, plus a result for activities that are not found.
+ */
+final class SyntheticScripts {
+
+    static final int RESULT_OK = -1;
+    static final int RESULT_SKIP = 1;
+    /* Stand-in for setupcompat's ResultCodes.RESULT_ACTIVITY_NOT_FOUND */
+    static final int RESULT_ACTIVITY_NOT_FOUND = 2;
+
+    private SyntheticScripts() {
+    }
+
+    static String actionId(int action) {
+        return "action_" + action;
+    }
+
+    static String xml(int count) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        sb.append("<WizardScript xmlns:wizard=\"")
+                .append(WizardScript.WIZARD_SCRIPT_NAMESPACE)
+                .append("\"\n    wizard:firstAction=\"").append(actionId(0)).append("\">\n");
+        for (int i = 0; i < count; i++) {
+            sb.append("    <WizardAction wizard:uri=\"intent:#Intent;action=")
+                    .append("org.lineageos.setupwizard.benchmark.ACTION_").append(i)
+                    .append(";end\" id=\"").append(actionId(i)).append("\">\n");
+            if (i + 1 < count) {
+                if (i % 4 == 0 && i + 2 < count) {
+                    appendResult(sb, RESULT_SKIP, i + 2);
+                }
+                appendResult(sb, RESULT_ACTIVITY_NOT_FOUND, i + 1);
+                sb.append("        <result wizard:action=\"").append(actionId(i + 1))
+                        .append("\" />\n");
+            }
+            sb.append("    </WizardAction>\n");
+        }
+        sb.append("</WizardScript>\n");
+        return sb.toString();
+    }
+
+    private static void appendResult(StringBuilder sb, int resultCode, int action) {
+        sb.append("        <result wizard:resultCode=\"").append(resultCode)
+                .append("\" wizard:action=\"").append(actionId(action)).append("\" />\n");
+    }
+
+    /**
+     * @return the script compiled by the build-time compiler
+     */
+    static byte[] compiled(int count) throws IOException {
+        File dir = Files.createTempDirectory("wizard_scripts").toFile();
+        File input = new File(dir, "synthetic_script.xml");
+        File output = new File(dir, "synthetic_script" + WizardScriptFormat.COMPILED_SCRIPT_SUFFIX);
+        try {
+            Files.write(input.toPath(), xml(count).getBytes(StandardCharsets.UTF_8));
+            WizardScriptCompiler.compile(input, dir, false);
+            return Files.readAllBytes(output.toPath());
+        } finally {
+            output.delete();
+            input.delete();
+            dir.delete();
+        }
+    }
+
+    /**
+     * @return availability with every third action missing and a run of five missing actions
+     * every fifty, so routes have short and long skip chains to resolve
+     */
+    static boolean[] availability(int count) {
+        boolean[] available = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            available[i] = i % 3 != 2 && i % 50 < 45;
+        }
+        available[0] = true;
+        return available;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.lineageos.setupwizard.wizardmanager;
+
+import static android.content.Intent.FLAG_GRANT_READ_URI_PERMISSION;
+
+import android.content.Intent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Per step intent cost: parsing the action URI every time against copying the template parsed
+ * at load time. The host Intent shim parses far less than the platform, so the gap on a device
+ * is larger than measured here.
+ */
+@State(Scope.Thread)
+public class WizardActionIntentBenchmark {
+
+    private WizardAction mAction;
+
+    @Setup
+    public void setUp() throws Exception {
+        mAction = WizardScript.readCompiled(ByteBuffer.wrap(SyntheticScripts.compiled(10)))
+                .getFirstAction();
+    }
+
+    @Benchmark
+    public Intent parseUri() throws Exception {
+        return Intent.parseUri(mAction.getUri(), FLAG_GRANT_READ_URI_PERMISSION);
+    }
+
+    @Benchmark
+    public Intent copyTemplate() {
+        return mAction.getIntent();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.lineageos.setupwizard.wizardmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cost of a single next action lookup, cycling through all actions of the script.
+ */
+@State(Scope.Thread)
+public class WizardNextActionBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int actions;
+
+    private WizardScript mScript;
+    private WizardGraph mGraph;
+    private WizardRoute mRoute;
+    private String[] mActionIds;
+    private int mAction;
+    private int mResultCode;
+
+    @Setup
+    public void setUp() throws Exception {
+        mScript = WizardScript.readCompiled(ByteBuffer.wrap(SyntheticScripts.compiled(actions)));
+        mGraph = mScript.getGraph();
+        mRoute = new WizardRoute(mGraph, SyntheticScripts.availability(actions),
+                SyntheticScripts.RESULT_ACTIVITY_NOT_FOUND, SyntheticScripts.RESULT_OK);
+        mActionIds = new String[actions];
+        for (int i = 0; i < actions; i++) {
+            mActionIds[i] = mGraph.getActionId(i);
+        }
+    }
+
+    private void advance() {
+        if (++mAction == actions) {
+            mAction = 0;
+        }
+        // Mix taken and default transitions
+        mResultCode = (mAction & 1) == 0 ? SyntheticScripts.RESULT_SKIP
+                : SyntheticScripts.RESULT_OK;
+    }
+
+    @Benchmark
+    public String transitionsById() {
+        advance();
+        return mScript.getAction(mAction).getNextAction(mResultCode);
+    }
+
+    @Benchmark
+    public String scriptById() {
+        advance();
+        return mScript.getNextActionId(mActionIds[mAction], mResultCode);
+    }
+
+    @Benchmark
+    public int graphByIndex() {
+        advance();
+        return mGraph.getNextAction(mAction, mResultCode);
+    }
+
+    @Benchmark
+    public int routeByIndex() {
+        advance();
+        return mRoute.getNextAction(mAction, mResultCode);
+    }
+}
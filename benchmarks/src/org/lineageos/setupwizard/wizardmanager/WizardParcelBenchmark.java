@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.lineageos.setupwizard.wizardmanager;
+
+import android.os.Parcel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parcel round trips of the script model, through the host Parcel shim.
+ */
+@State(Scope.Thread)
+public class WizardParcelBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int actions;
+
+    private WizardScript mScript;
+    private WizardAction mAction;
+    private Parcel mParcel;
+
+    @Setup
+    public void setUp() throws Exception {
+        mScript = WizardScript.readCompiled(ByteBuffer.wrap(SyntheticScripts.compiled(actions)));
+        // The first action has the most transitions
+        mAction = mScript.getFirstAction();
+        mParcel = Parcel.obtain();
+    }
+
+    @Benchmark
+    public WizardScript script() {
+        mParcel.setDataPosition(0);
+        mScript.writeToParcel(mParcel, 0);
+        mParcel.setDataPosition(0);
+        return WizardScript.CREATOR.createFromParcel(mParcel);
+    }
+
+    @Benchmark
+    public WizardAction action() {
+        mParcel.setDataPosition(0);
+        mAction.writeToParcel(mParcel, 0);
+        mParcel.setDataPosition(0);
+        return WizardAction.CREATOR.createFromParcel(mParcel);
+    }
+
+    @Benchmark
+    public WizardTransitions transitions() {
+        mParcel.setDataPosition(0);
+        mAction.getTransitions().writeToParcel(mParcel, 0);
+        mParcel.setDataPosition(0);
+        return WizardTransitions.CREATOR.createFromParcel(mParcel);
+    }
+}
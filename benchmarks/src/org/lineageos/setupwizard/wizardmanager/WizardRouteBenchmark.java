@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.lineageos.setupwizard.wizardmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Skip chain resolution: building a route for an availability snapshot, and walking the
+ * forward path with and without one.
+ */
+@State(Scope.Benchmark)
+public class WizardRouteBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int actions;
+
+    private WizardGraph mGraph;
+    private boolean[] mAvailable;
+    private WizardRoute mRoute;
+
+    @Setup
+    public void setUp() throws Exception {
+        mGraph = WizardScript.readCompiled(ByteBuffer.wrap(SyntheticScripts.compiled(actions)))
+                .getGraph();
+        mAvailable = SyntheticScripts.availability(actions);
+        mRoute = createRoute();
+    }
+
+    @Benchmark
+    public WizardRoute createRoute() {
+        return new WizardRoute(mGraph, mAvailable, SyntheticScripts.RESULT_ACTIVITY_NOT_FOUND,
+                SyntheticScripts.RESULT_OK);
+    }
+
+    @Benchmark
+    public int walkRoute() {
+        int pages = 0;
+        for (int action = mRoute.getFirstAction(); action != WizardGraph.NO_ACTION;
+                action = mRoute.getNextAction(action, SyntheticScripts.RESULT_OK)) {
+            pages++;
+        }
+        return pages;
+    }
+
+    /**
+     * What navigation did per step before routes: follow skip transitions past every
+     * unavailable action.
+     */
+    @Benchmark
+    public int walkGraphSkippingUnavailable() {
+        int pages = 0;
+        int action = skip(mGraph.getFirstAction());
+        while (action != WizardGraph.NO_ACTION) {
+            pages++;
+            action = skip(mGraph.getNextAction(action, SyntheticScripts.RESULT_OK));
+        }
+        return pages;
+    }
+
+    private int skip(int action) {
+        while (action != WizardGraph.NO_ACTION && !mAvailable[action]) {
+            action = mGraph.getNextAction(action, SyntheticScripts.RESULT_ACTIVITY_NOT_FOUND);
+        }
+        return action;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.lineageos.setupwizard.wizardmanager;
+
+import android.util.Xml;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loading a script from XML against loading its precompiled form.
+ */
+@State(Scope.Benchmark)
+public class WizardScriptLoadBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int actions;
+
+    private byte[] mXml;
+    private byte[] mCompiled;
+
+    @Setup
+    public void setUp() throws Exception {
+        mXml = SyntheticScripts.xml(actions).getBytes(StandardCharsets.UTF_8);
+        mCompiled = SyntheticScripts.compiled(actions);
+    }
+
+    @Benchmark
+    public WizardScript parseXml() throws Exception {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setInput(new ByteArrayInputStream(mXml), null);
+        int next;
+        do {
+            next = parser.next();
+        } while (next != XmlPullParser.START_TAG && next != XmlPullParser.END_DOCUMENT);
+        return WizardScript.parseWizardScript(parser);
+    }
+
+    @Benchmark
+    public WizardScript readCompiled() throws Exception {
+        return WizardScript.readCompiled(ByteBuffer.wrap(mCompiled));
+    }
+}
@@ -62,6 +62,7 @@ import com.google.android.setupdesign.GlifLayout;
 
 import org.lineageos.setupwizard.NavigationLayout.NavigationBarListener;
 import org.lineageos.setupwizard.util.SetupWizardUtils;
+import org.lineageos.setupwizard.wizardmanager.WizardNavigator;
 
 import java.util.List;
 
@@ -143,6 +144,9 @@ public abstract class BaseSetupWizardActivity extends Activity implements Naviga
             logActivityState("onResume");
         }
         super.onResume();
+        // Runs once the first frame of the page is drawn
+        getWindow().getDecorView().post(
+                ((SetupWizardApp) getApplication())::prewarmMonitors);
         if (mIsGoingBack) {
             if (!mIsExiting) {
                 applyBackwardTransition(getTransition());
@@ -437,7 +441,30 @@ public abstract class BaseSetupWizardActivity extends Activity implements Naviga
         if (!(mResultData == null || mResultData.getExtras() == null)) {
             intent.putExtras(mResultData.getExtras());
         }
-        startActivityForResult(intent, NEXT_REQUEST);
+        if (getIntent().hasExtra(EXTRA_SCRIPT_URI)) {
+            startNextAction(intent);
+        } else {
+            startActivityForResult(intent, NEXT_REQUEST);
+        }
+    }
+
+    /**
+     * Resolves and starts the next page in-process, rather than going through the
+     * WizardManager activity with the NEXT intent.
+     */
+    private void startNextAction(Intent nextIntent) {
+        final String scriptUri = nextIntent.getStringExtra(EXTRA_SCRIPT_URI);
+        final WizardNavigator navigator =
+                ((SetupWizardApp) getApplication()).getWizardNavigator();
+        final Intent intent = navigator.getNextIntent(scriptUri,
+                nextIntent.getStringExtra(EXTRA_ACTION_ID), mResultCode, nextIntent.getExtras());
+        if (intent != null) {
+            startActivity(intent);
+            // Matches the canceled NEXT_REQUEST result the WizardManager hop used to deliver
+            mIsGoingBack = true;
+        } else {
+            navigator.exit(scriptUri);
+        }
     }
 
     protected void applyForwardTransition(int transitionId) {
@@ -19,116 +19,64 @@ package org.lineageos.setupwizard;
 
 import static org.lineageos.setupwizard.SetupWizardApp.REQUEST_CODE_SETUP_CAPTIVE_PORTAL;
 
-import android.content.Context;
 import android.content.Intent;
 import android.net.ConnectivityManager;
-import android.os.AsyncTask;
-import android.util.Log;
 
-import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import org.lineageos.setupwizard.util.CaptivePortalDetector;
+import org.lineageos.setupwizard.util.NetworkMonitor;
+import org.lineageos.setupwizard.util.NetworkSnapshot;
+
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 
 public class CaptivePortalSetupActivity extends WrapperSubBaseActivity {
 
     public static final String TAG = CaptivePortalSetupActivity.class.getSimpleName();
 
-    private static final int CAPTIVE_PORTAL_SOCKET_TIMEOUT_MS = 10000;
+    // How long to wait for a network to probe through before assuming there is no portal
+    private static final int NETWORK_TIMEOUT_MS = 5000;
 
-    private URL mCaptivePortalUrl;
+    private CompletableFuture<NetworkSnapshot> mNetworkWait;
+    private CompletableFuture<Boolean> mDetection;
 
     @Override
     protected void onStartSubactivity() {
-        ConnectivityManager connectivity = getSystemService(ConnectivityManager.class);
-
-        try {
-            mCaptivePortalUrl = new URL(connectivity.getCaptivePortalServerUrl());
-        } catch (MalformedURLException e) {
-            Log.e(TAG, "Not a valid url" + e);
-        }
-        CheckForCaptivePortalTask
-                .checkForCaptivePortal(mCaptivePortalUrl, this, true);
+        // Probing without a network only fails after the socket timeout, so wait for one first
+        mNetworkWait = NetworkMonitor.getInstance(this).awaitConnected(NETWORK_TIMEOUT_MS);
+        mNetworkWait.whenComplete((snapshot, throwable) -> {
+            if (snapshot != null) {
+                mDetection = CaptivePortalDetector.check(this, snapshot);
+                mDetection.thenAcceptAsync(this::onCaptivePortalDetected, getMainExecutor());
+            } else if (throwable instanceof TimeoutException) {
+                onCaptivePortalDetected(false);
+            }
+        });
     }
 
-    private static class CheckForCaptivePortalTask extends AsyncTask<Void, Void, Boolean> {
-
-        private final URL captivePortalUrl;
-        private final CaptivePortalSetupActivity captivePortalSetupActivity;
-        private static CheckForCaptivePortalTask sTask = null;
-        private String responseToken;
-
-        public CheckForCaptivePortalTask(URL captivePortalUrl,
-                CaptivePortalSetupActivity captivePortalSetupActivity) {
-            this.captivePortalUrl = captivePortalUrl;
-            this.captivePortalSetupActivity = captivePortalSetupActivity;
-        }
-
-        public static void checkForCaptivePortal(URL captivePortalUrl,
-                CaptivePortalSetupActivity captivePortalSetupActivity,
-                boolean cancelAndRecreateIfRunning) {
-            if (sTask == null || sTask.getStatus() == Status.FINISHED) {
-                sTask = new CheckForCaptivePortalTask(captivePortalUrl, captivePortalSetupActivity);
-                sTask.execute();
-
-            } else if (cancelAndRecreateIfRunning) {
-                sTask.cancel(true);
-                sTask = new CheckForCaptivePortalTask(captivePortalUrl, captivePortalSetupActivity);
-                sTask.execute();
-            }
+    @Override
+    protected void onDestroy() {
+        if (mNetworkWait != null) {
+            mNetworkWait.cancel(false);
         }
-
-        @Override
-        protected Boolean doInBackground(Void... params) {
-            if (captivePortalUrl == null) return false;
-            HttpURLConnection urlConnection = null;
-            try {
-                urlConnection = (HttpURLConnection) captivePortalUrl.openConnection();
-                urlConnection.setInstanceFollowRedirects(false);
-                urlConnection.setConnectTimeout(CAPTIVE_PORTAL_SOCKET_TIMEOUT_MS);
-                urlConnection.setReadTimeout(CAPTIVE_PORTAL_SOCKET_TIMEOUT_MS);
-                urlConnection.setUseCaches(false);
-                urlConnection.getInputStream();
-                // We got a valid response, but not from the real google
-                final int responseCode = urlConnection.getResponseCode();
-                if (responseCode == 408 || responseCode == 504) {
-                    // If we timeout here, we'll try and go through captive portal login
-                    return true;
-                }
-                return urlConnection.getResponseCode() != 204;
-            } catch (IOException e) {
-                Log.e(TAG, "Captive portal check - probably not a portal: exception "
-                        + e);
-                return false;
-            } finally {
-                if (urlConnection != null) {
-                    urlConnection.disconnect();
-                }
-            }
+        if (mDetection != null) {
+            mDetection.cancel(false);
         }
+        super.onDestroy();
+    }
 
-        @Override
-        protected void onPostExecute(Boolean isPortal) {
-            if (isPortal) {
-                final Context context = captivePortalSetupActivity.getApplicationContext();
-                responseToken = String.valueOf(new Random().nextLong());
-                final Intent intent = new Intent(
-                        ConnectivityManager.ACTION_CAPTIVE_PORTAL_SIGN_IN);
-                intent.putExtra(Intent.EXTRA_TEXT, responseToken);
-                intent.putExtra("status_bar_color",
-                        context.getResources().getColor(R.color.primary_dark));
-                intent.putExtra("action_bar_color", context.getResources().getColor(
-                        R.color.primary_dark));
-                intent.putExtra("progress_bar_color", context.getResources().getColor(
-                        R.color.accent));
-                captivePortalSetupActivity.startSubactivity(intent,
-                        REQUEST_CODE_SETUP_CAPTIVE_PORTAL);
-            } else {
-                captivePortalSetupActivity.finishAction(RESULT_OK);
-                captivePortalSetupActivity.finish();
-            }
+    private void onCaptivePortalDetected(boolean isPortal) {
+        if (isPortal) {
+            final String responseToken = String.valueOf(new Random().nextLong());
+            final Intent intent = new Intent(ConnectivityManager.ACTION_CAPTIVE_PORTAL_SIGN_IN);
+            intent.putExtra(Intent.EXTRA_TEXT, responseToken);
+            intent.putExtra("status_bar_color", getResources().getColor(R.color.primary_dark));
+            intent.putExtra("action_bar_color", getResources().getColor(R.color.primary_dark));
+            intent.putExtra("progress_bar_color", getResources().getColor(R.color.accent));
+            startSubactivity(intent, REQUEST_CODE_SETUP_CAPTIVE_PORTAL);
+        } else {
+            finishAction(RESULT_OK);
+            finish();
         }
     }
-
 }
@@ -20,9 +20,7 @@ package org.lineageos.setupwizard;
 import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
 
 import android.os.Bundle;
-import android.os.Handler;
 import android.telephony.ServiceState;
-import android.telephony.SignalStrength;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.text.TextUtils;
@@ -38,9 +36,9 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import org.lineageos.setupwizard.util.PhoneMonitor;
-import org.lineageos.setupwizard.util.SetupWizardUtils;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class ChooseDataSimActivity extends BaseSetupWizardActivity {
 
@@ -54,7 +52,6 @@ public class ChooseDataSimActivity extends BaseSetupWizardActivity {
     private SparseArray<View> mRows;
 
     private SparseArray<SubscriptionInfo> mSubInfoRecords;
-    private SparseArray<SignalStrength> mSignalStrengths;
     private SparseArray<ServiceState> mServiceStates;
 
     private boolean mIsAttached = false;
@@ -64,16 +61,6 @@ public class ChooseDataSimActivity extends BaseSetupWizardActivity {
 
     private boolean mDisabledForSwitch = false;
 
-    private final Handler mHandler = new Handler();
-
-    private final Runnable mRadioReadyRunnable = () -> {
-        // If we timeout out waiting for the radio, Oh well.
-        if (!mRadioReady) {
-            mRadioReady = true;
-            checkForRadioReady();
-        }
-    };
-
     private final View.OnClickListener mSetDataSimClickListener = view -> {
         SubscriptionInfo subInfoRecord = (SubscriptionInfo) view.getTag();
         if (subInfoRecord != null) {
@@ -93,9 +80,6 @@ public class ChooseDataSimActivity extends BaseSetupWizardActivity {
                     }
                     SubscriptionInfo subInfoRecord =
                             mPhoneMonitor.getActiveSubscriptionInfo(subId);
-                    mRadioReady = SetupWizardUtils.isRadioReady(
-                            ChooseDataSimActivity.this, serviceState);
-                    checkForRadioReady();
                     mServiceStates.put(subInfoRecord.getSimSlotIndex(), serviceState);
                     updateSignalStrength(subInfoRecord);
                 }
@@ -140,16 +124,15 @@ public class ChooseDataSimActivity extends BaseSetupWizardActivity {
                 }
 
                 @Override
-                public void onSignalStrengthsChanged(int subId, SignalStrength signalStrength) {
+                public void onSignalLevelChanged(int subId, int level) {
                     if (LOGV) {
-                        Log.v(TAG, "onSignalStrengthsChanged{" +
+                        Log.v(TAG, "onSignalLevelChanged{" +
                                 "subId='" + subId + '\'' +
-                                ", signalStrength=" + signalStrength.toString() +
+                                ", level=" + level +
                                 '}');
                     }
                     SubscriptionInfo subInfoRecord =
                             mPhoneMonitor.getActiveSubscriptionInfo(subId);
-                    mSignalStrengths.put(subInfoRecord.getSimSlotIndex(), signalStrength);
                     updateSignalStrength(subInfoRecord);
                 }
 
@@ -170,7 +153,7 @@ public class ChooseDataSimActivity extends BaseSetupWizardActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setNextText(R.string.next);
-        mPhoneMonitor = PhoneMonitor.getInstance();
+        mPhoneMonitor = PhoneMonitor.getInstance(this);
         mPageView = (ViewGroup) findViewById(R.id.page_view);
         mProgressBar = (ProgressBar) findViewById(R.id.progress);
         List<SubscriptionInfo> subInfoRecords = mPhoneMonitor.getActiveSubscriptionInfoList();
@@ -186,7 +169,6 @@ public class ChooseDataSimActivity extends BaseSetupWizardActivity {
         mCheckBoxes = new SparseArray<>(simCount);
         mRows = new SparseArray<>(simCount);
         mServiceStates = new SparseArray<>(simCount);
-        mSignalStrengths = new SparseArray<>(simCount);
         LayoutInflater inflater = LayoutInflater.from(this);
         for (int i = 0; i < simCount; i++) {
             View simRow = inflater.inflate(R.layout.data_sim_row, null);
@@ -217,29 +199,30 @@ public class ChooseDataSimActivity extends BaseSetupWizardActivity {
         super.onResume();
         mIsAttached = true;
         mPhoneMonitor.addListener(mSubscriptionStateListener);
-        mRadioReady = SetupWizardUtils.isRadioReady(this, null);
+        final CompletableFuture<Boolean> radioReady = mPhoneMonitor.getRadioReady();
+        mRadioReady = radioReady.isDone();
         updateSignalStrengths();
         updateCurrentDataSub();
         checkForRadioReady();
-        if (mRadioReady) {
-            final int currentDataSub = SubscriptionManager.getDefaultDataSubscriptionId();
-            checkSimChangingState(currentDataSub, currentDataSub);
+        if (!mRadioReady) {
+            // If we time out waiting for the radio, Oh well.
+            radioReady.thenRun(() -> {
+                if (mIsAttached && !mRadioReady) {
+                    mRadioReady = true;
+                    checkForRadioReady();
+                }
+            });
         }
     }
 
     private void checkForRadioReady() {
         if (mRadioReady) {
-            mHandler.removeCallbacks(mRadioReadyRunnable);
             showPage();
             final int currentDataSub = SubscriptionManager.getDefaultDataSubscriptionId();
             checkSimChangingState(currentDataSub, currentDataSub);
-            return;
         } else {
             enableViews(false);
             showProgress();
-            if (!mHandler.hasCallbacks(mRadioReadyRunnable)) {
-                mHandler.postDelayed(mRadioReadyRunnable, SetupWizardApp.RADIO_READY_TIMEOUT);
-            }
         }
     }
 
@@ -389,21 +372,20 @@ public class ChooseDataSimActivity extends BaseSetupWizardActivity {
     private void updateSignalStrength(SubscriptionInfo subInfoRecord) {
         if (mIsAttached) {
             ImageView signalView = mSignalViews.get(subInfoRecord.getSimSlotIndex());
-            SignalStrength signalStrength = mSignalStrengths.get(subInfoRecord.getSimSlotIndex());
+            final int level =
+                    mPhoneMonitor.getSignalLevel(subInfoRecord.getSubscriptionId());
             if (LOGV) {
                 Log.v(TAG, "updateSignalStrength{" +
-                        "signalStrength='" + signalStrength + '\'' +
-                        "signalStrengthLevel='" + ((signalStrength != null) ?
-                        signalStrength.getLevel() : "null") + '\'' +
+                        "signalLevel='" + level + '\'' +
                         ", subInfoRecord.getSimSlotIndex() =" + subInfoRecord.getSimSlotIndex() +
                         '}');
             }
             if (!hasService(subInfoRecord)) {
                 signalView.setImageResource(R.drawable.ic_signal_no_signal);
             } else {
-                if (signalStrength != null) {
+                if (level != PhoneMonitor.SIGNAL_LEVEL_UNKNOWN) {
                     int resId;
-                    switch (signalStrength.getLevel()) {
+                    switch (level) {
                         case 4:
                             resId = R.drawable.ic_signal_4;
                             break;
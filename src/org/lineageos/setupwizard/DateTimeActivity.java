@@ -17,7 +17,6 @@
 
 package org.lineageos.setupwizard;
 
-import android.app.AlarmManager;
 import android.app.DatePickerDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
@@ -39,6 +38,7 @@ import android.widget.TimePicker;
 
 import com.android.settingslib.datetime.ZoneGetter;
 
+import org.lineageos.setupwizard.util.DeferredSettings;
 import org.lineageos.setupwizard.util.SetupWizardUtils;
 
 import java.util.Calendar;
@@ -81,7 +81,7 @@ public class DateTimeActivity extends BaseSetupWizardActivity implements
 
         final Spinner spinner = (Spinner) findViewById(R.id.timezone_list);
         final SimpleAdapter adapter = constructTimezoneAdapter(this);
-        mCurrentTimeZone = TimeZone.getDefault();
+        mCurrentTimeZone = DeferredSettings.getTimeZone(this);
         View dateView = findViewById(R.id.date_item);
         dateView.setOnClickListener((view) -> showDatePicker());
         View timeView = findViewById(R.id.time_item);
@@ -103,10 +103,9 @@ public class DateTimeActivity extends BaseSetupWizardActivity implements
                     final String tzId = (String) map.get(KEY_ID);
                     if (mCurrentTimeZone != null && !mCurrentTimeZone.getID().equals(tzId)) {
                         // Update the system timezone value
-                        final AlarmManager alarm =
-                                (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-                        alarm.setTimeZone(tzId);
+                        DeferredSettings.setTimeZone(DateTimeActivity.this, tzId);
                         mCurrentTimeZone = TimeZone.getTimeZone(tzId);
+                        updateTimeAndDateDisplay();
                     }
 
                 }
@@ -118,7 +117,7 @@ public class DateTimeActivity extends BaseSetupWizardActivity implements
         });
         // Pre-select current/default date if epoch
         mHandler.post(() -> {
-            final Calendar calendar = Calendar.getInstance();
+            final Calendar calendar = DeferredSettings.getCalendar(DateTimeActivity.this);
             final boolean isEpoch = calendar.get(Calendar.YEAR) == 1970;
             if (isEpoch) {
                 // If epoch, set date to build date
@@ -193,8 +192,11 @@ public class DateTimeActivity extends BaseSetupWizardActivity implements
 
     private void updateTimeAndDateDisplay() {
         java.text.DateFormat shortDateFormat = DateFormat.getDateFormat(this);
-        final Calendar now = Calendar.getInstance();
-        mTimeTextView.setText(DateFormat.getTimeFormat(this).format(now.getTime()));
+        java.text.DateFormat timeFormat = DateFormat.getTimeFormat(this);
+        final Calendar now = DeferredSettings.getCalendar(this);
+        shortDateFormat.setTimeZone(now.getTimeZone());
+        timeFormat.setTimeZone(now.getTimeZone());
+        mTimeTextView.setText(timeFormat.format(now.getTime()));
         mDateTextView.setText(shortDateFormat.format(now.getTime()));
     }
 
@@ -229,7 +231,7 @@ public class DateTimeActivity extends BaseSetupWizardActivity implements
     }
 
     private static void setDate(Context context, int year, int month, int day) {
-        Calendar c = Calendar.getInstance();
+        Calendar c = DeferredSettings.getCalendar(context);
 
         c.set(Calendar.YEAR, year);
         c.set(Calendar.MONTH, month);
@@ -237,12 +239,12 @@ public class DateTimeActivity extends BaseSetupWizardActivity implements
         long when = c.getTimeInMillis();
 
         if (when / 1000 < Integer.MAX_VALUE) {
-            ((AlarmManager) context.getSystemService(Context.ALARM_SERVICE)).setTime(when);
+            DeferredSettings.setTime(context, when);
         }
     }
 
     private static void setTime(Context context, int hourOfDay, int minute) {
-        Calendar c = Calendar.getInstance();
+        Calendar c = DeferredSettings.getCalendar(context);
 
         c.set(Calendar.HOUR_OF_DAY, hourOfDay);
         c.set(Calendar.MINUTE, minute);
@@ -251,7 +253,7 @@ public class DateTimeActivity extends BaseSetupWizardActivity implements
         long when = c.getTimeInMillis();
 
         if (when / 1000 < Integer.MAX_VALUE) {
-            ((AlarmManager) context.getSystemService(Context.ALARM_SERVICE)).setTime(when);
+            DeferredSettings.setTime(context, when);
         }
     }
 
@@ -305,7 +307,7 @@ public class DateTimeActivity extends BaseSetupWizardActivity implements
 
         @Override
         public Dialog onCreateDialog(Bundle savedInstanceState) {
-            final Calendar calendar = Calendar.getInstance();
+            final Calendar calendar = DeferredSettings.getCalendar(getActivity());
             return new TimePickerDialog(
                     getActivity(),
                     this,
@@ -332,7 +334,7 @@ public class DateTimeActivity extends BaseSetupWizardActivity implements
 
         @Override
         public Dialog onCreateDialog(Bundle savedInstanceState) {
-            final Calendar calendar = Calendar.getInstance();
+            final Calendar calendar = DeferredSettings.getCalendar(getActivity());
             return new DatePickerDialog(
                     getActivity(),
                     this,
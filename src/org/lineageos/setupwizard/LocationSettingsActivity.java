@@ -17,12 +17,12 @@
 
 package org.lineageos.setupwizard;
 
-import android.location.LocationManager;
 import android.os.Bundle;
-import android.os.UserHandle;
 import android.view.View;
 import android.widget.CheckBox;
 
+import org.lineageos.setupwizard.util.DeferredSettings;
+
 public class LocationSettingsActivity extends BaseSetupWizardActivity {
 
     public static final String TAG =
@@ -30,19 +30,15 @@ public class LocationSettingsActivity extends BaseSetupWizardActivity {
 
     private CheckBox mLocationAccess;
 
-    private LocationManager mLocationManager;
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setNextText(R.string.next);
 
         mLocationAccess = (CheckBox) findViewById(R.id.location_checkbox);
-        mLocationManager = getSystemService(LocationManager.class);
         View locationAccessView = findViewById(R.id.location);
         locationAccessView.setOnClickListener(v -> {
-            mLocationManager.setLocationEnabledForUser(!mLocationAccess.isChecked(),
-                    new UserHandle(UserHandle.USER_CURRENT));
+            DeferredSettings.setLocationEnabled(this, !mLocationAccess.isChecked());
             mLocationAccess.setChecked(!mLocationAccess.isChecked());
         });
     }
@@ -50,7 +46,7 @@ public class LocationSettingsActivity extends BaseSetupWizardActivity {
     @Override
     public void onResume() {
         super.onResume();
-        mLocationAccess.setChecked(mLocationManager.isLocationEnabled());
+        mLocationAccess.setChecked(DeferredSettings.isLocationEnabled(this));
     }
 
     @Override
@@ -19,10 +19,9 @@ package org.lineageos.setupwizard;
 
 import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
 
+import android.net.NetworkCapabilities;
 import android.os.Bundle;
-import android.os.Handler;
 import android.telephony.ServiceState;
-import android.telephony.SignalStrength;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
@@ -35,9 +34,12 @@ import android.widget.Switch;
 import android.widget.TextView;
 
 import org.lineageos.setupwizard.util.NetworkMonitor;
+import org.lineageos.setupwizard.util.NetworkSnapshot;
 import org.lineageos.setupwizard.util.PhoneMonitor;
 import org.lineageos.setupwizard.util.SetupWizardUtils;
 
+import java.util.concurrent.CompletableFuture;
+
 public class MobileDataActivity extends BaseSetupWizardActivity {
 
     public static final String TAG = MobileDataActivity.class.getSimpleName();
@@ -51,18 +53,14 @@ public class MobileDataActivity extends BaseSetupWizardActivity {
     private TextView mNameView;
 
     private TelephonyManager mPhone;
-    private SignalStrength mSignalStrength;
     private ServiceState mServiceState;
     private PhoneMonitor mPhoneMonitor;
     private NetworkMonitor mNetworkMonitor;
 
     private boolean mIsAttached = false;
 
-    private final Handler mHandler = new Handler();
-
-    private final Runnable mRadioReadyRunnable = this::hideWaitForRadio;
-
-    private final Runnable mDataConnectionReadyRunnable = this::onDataStateReady;
+    // Completes once a mobile data network is up, or DC_READY_TIMEOUT passed
+    private CompletableFuture<NetworkSnapshot> mDataWait;
 
     private final PhoneMonitor.SubscriptionStateListener mSubscriptionStateListener =
             new PhoneMonitor.SubscriptionStateListener() {
@@ -74,56 +72,20 @@ public class MobileDataActivity extends BaseSetupWizardActivity {
                                 ", serviceState=" + serviceState.toString() +
                                 '}');
                     }
-                    if (SetupWizardUtils.isRadioReady(MobileDataActivity.this, serviceState)) {
-                        hideWaitForRadio();
-                    }
                     mServiceState = serviceState;
                     updateSignalStrength();
                 }
 
                 @Override
-                public void onDataConnectionStateChanged(int subId, int state, int networkType) {
-                    if (LOGV) {
-                        Log.v(TAG, "onDataConnectionStateChanged{" +
-                                "subId='" + subId + '\'' +
-                                ", state=" + state +
-                                '}');
-                    }
-                    if (state == TelephonyManager.DATA_CONNECTED) {
-                        onDataStateReady();
-                    }
-                }
-
-                @Override
-                public void onDefaultDataSubscriptionChanged(int subId) {
-                }
-
-                @Override
-                public void onDefaultDataSubscriptionChangeRequested(int currentSubId,
-                        int newSubId) {
-                }
-
-                @Override
-                public void onSignalStrengthsChanged(int subId, SignalStrength signalStrength) {
+                public void onSignalLevelChanged(int subId, int level) {
                     if (LOGV) {
-                        Log.v(TAG, "onSignalStrengthsChanged{" +
+                        Log.v(TAG, "onSignalLevelChanged{" +
                                 "subId='" + subId + '\'' +
-                                ", signalStrength=" + signalStrength.toString() +
+                                ", level=" + level +
                                 '}');
                     }
-                    mSignalStrength = signalStrength;
                     updateSignalStrength();
                 }
-
-                @Override
-                public void onSimStateChanged(int subId, int simState) {
-                    if (LOGV) {
-                        Log.v(TAG, "onSimStateChanged{" +
-                                "subId='" + subId + '\'' +
-                                ", simState=" + simState +
-                                '}');
-                    }
-                }
             };
 
     private final View.OnClickListener mEnableDataClickListener = new View.OnClickListener() {
@@ -143,8 +105,8 @@ public class MobileDataActivity extends BaseSetupWizardActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        mPhoneMonitor = PhoneMonitor.getInstance();
-        mNetworkMonitor = NetworkMonitor.getInstance();
+        mPhoneMonitor = PhoneMonitor.getInstance(this);
+        mNetworkMonitor = NetworkMonitor.getInstance(this);
         setNextText(R.string.next);
 
         mProgressBar = (ProgressBar) findViewById(R.id.progress);
@@ -162,14 +124,15 @@ public class MobileDataActivity extends BaseSetupWizardActivity {
         super.onResume();
         mIsAttached = true;
         mPhone = getSystemService(TelephonyManager.class);
-        mPhoneMonitor.addListener(mSubscriptionStateListener);
+        mPhoneMonitor.addListener(mSubscriptionStateListener, null,
+                PhoneMonitor.EVENT_SERVICE_STATE | PhoneMonitor.EVENT_SIGNAL_LEVEL);
         updateDataConnectionStatus();
         updateSignalStrength();
-        if (SetupWizardUtils.isRadioReady(this, null)) {
-            hideWaitForRadio();
-        } else {
-            mHandler.postDelayed(mRadioReadyRunnable, SetupWizardApp.RADIO_READY_TIMEOUT);
-        }
+        mPhoneMonitor.getRadioReady().thenRun(() -> {
+            if (mIsAttached) {
+                hideWaitForRadio();
+            }
+        });
     }
 
     @Override
@@ -179,9 +142,16 @@ public class MobileDataActivity extends BaseSetupWizardActivity {
         mPhoneMonitor.removeListener(mSubscriptionStateListener);
     }
 
+    @Override
+    protected void onDestroy() {
+        if (mDataWait != null) {
+            mDataWait.cancel(false);
+        }
+        super.onDestroy();
+    }
+
     private void hideWaitForRadio() {
         if (mProgressBar.isShown()) {
-            mHandler.removeCallbacks(mRadioReadyRunnable);
             // Something else, like data enablement, may have grabbed
             // the "hold" status. Kill it only if "Next" is active
             if (isNextAllowed()) {
@@ -197,12 +167,23 @@ public class MobileDataActivity extends BaseSetupWizardActivity {
                     AnimationUtils.loadAnimation(this, R.anim.translucent_enter));
             mEnableDataRow.setEnabled(false);
             setNextAllowed(false);
-            mHandler.postDelayed(mDataConnectionReadyRunnable, DC_READY_TIMEOUT);
+            final CompletableFuture<NetworkSnapshot> dataWait = mNetworkMonitor.awaitTransport(
+                    NetworkCapabilities.TRANSPORT_CELLULAR, DC_READY_TIMEOUT);
+            mDataWait = dataWait;
+            // Ready either way, a timeout only means the user goes on without mobile data
+            dataWait.whenComplete((snapshot, throwable) -> {
+                if (!dataWait.isCancelled()) {
+                    onDataStateReady();
+                }
+            });
         }
     }
 
     private void onDataStateReady() {
-        mHandler.removeCallbacks(mDataConnectionReadyRunnable);
+        if (mDataWait != null) {
+            mDataWait.cancel(false);
+            mDataWait = null;
+        }
         if ((mProgressBar.isShown()) ||
                 !isNextAllowed()) {
             mProgressBar.startAnimation(
@@ -232,19 +213,18 @@ public class MobileDataActivity extends BaseSetupWizardActivity {
 
     private void updateSignalStrength() {
         if (mIsAttached) {
+            final int level = mPhoneMonitor.getSignalLevel(getDefaultSubscriptionId());
             if (LOGV) {
                 Log.v(TAG, "updateSignalStrength{" +
-                        "signalStrength='" + mSignalStrength + '\'' +
-                        "signalStrengthLevel='" + ((mSignalStrength != null) ?
-                        mSignalStrength.getLevel() : "null") + '\'' +
+                        "signalLevel='" + level + '\'' +
                         '}');
             }
             if (!hasService()) {
                 mSignalView.setImageResource(R.drawable.ic_signal_no_signal);
             } else {
-                if (mSignalStrength != null) {
+                if (level != PhoneMonitor.SIGNAL_LEVEL_UNKNOWN) {
                     int resId;
-                    switch (mSignalStrength.getLevel()) {
+                    switch (level) {
                         case 4:
                             resId = R.drawable.ic_signal_4;
                             break;
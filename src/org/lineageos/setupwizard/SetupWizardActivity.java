@@ -32,6 +32,7 @@ import com.google.android.setupcompat.util.WizardManagerHelper;
 
 import org.lineageos.setupwizard.util.SetupWizardUtils;
 import org.lineageos.setupwizard.wizardmanager.WizardManager;
+import org.lineageos.setupwizard.wizardmanager.WizardNavigator;
 
 public class SetupWizardActivity extends BaseSetupWizardActivity {
     private static final String TAG = SetupWizardActivity.class.getSimpleName();
@@ -48,13 +49,16 @@ public class SetupWizardActivity extends BaseSetupWizardActivity {
         } else {
             onSetupStart();
             SetupWizardUtils.enableComponent(this, WizardManager.class);
+            final String scriptUri = isPrimaryUser()
+                    ? getString(R.string.lineage_wizard_script_uri)
+                    : getString(R.string.lineage_wizard_script_user_uri);
+            final WizardNavigator navigator =
+                    ((SetupWizardApp) getApplication()).getWizardNavigator();
+            // Overlap loading the script, the journal of an interrupted run to pick up where
+            // it left off, and building the route, with the launch of the WizardManager activity
+            navigator.preload(scriptUri);
             Intent intent = new Intent(ACTION_LOAD);
-            if (isPrimaryUser()) {
-                intent.putExtra(EXTRA_SCRIPT_URI, getString(R.string.lineage_wizard_script_uri));
-            } else {
-                intent.putExtra(EXTRA_SCRIPT_URI,
-                        getString(R.string.lineage_wizard_script_user_uri));
-            }
+            intent.putExtra(EXTRA_SCRIPT_URI, scriptUri);
             intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | FLAG_GRANT_READ_URI_PERMISSION);
             startActivity(intent);
             finish();
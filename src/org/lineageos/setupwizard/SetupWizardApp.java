@@ -20,12 +20,14 @@ package org.lineageos.setupwizard;
 import android.app.Application;
 import android.app.StatusBarManager;
 import android.os.Bundle;
-import android.os.Handler;
 import android.util.Log;
 
+import org.lineageos.setupwizard.util.BackgroundExecutor;
+import org.lineageos.setupwizard.util.DeviceCapabilities;
 import org.lineageos.setupwizard.util.NetworkMonitor;
 import org.lineageos.setupwizard.util.PhoneMonitor;
 import org.lineageos.setupwizard.util.SetupWizardUtils;
+import org.lineageos.setupwizard.wizardmanager.WizardNavigator;
 
 public class SetupWizardApp extends Application {
 
@@ -67,17 +69,14 @@ public class SetupWizardApp extends Application {
     public static final int REQUEST_CODE_SETUP_LOCKSCREEN = 9;
     public static final int REQUEST_CODE_RESTORE = 10;
 
-    public static final int RADIO_READY_TIMEOUT = 10 * 1000;
-
     private static StatusBarManager sStatusBarManager;
 
-    private boolean mIsRadioReady = false;
     private boolean mIgnoreSimLocale = false;
+    private boolean mMonitorsPrewarmed = false;
 
     private final Bundle mSettingsBundle = new Bundle();
-    private final Handler mHandler = new Handler();
 
-    private final Runnable mRadioTimeoutRunnable = () -> mIsRadioReady = true;
+    private WizardNavigator mWizardNavigator;
 
     @Override
     public void onCreate() {
@@ -85,27 +84,33 @@ public class SetupWizardApp extends Application {
         if (LOGV) {
             Log.v(TAG, "onCreate()");
         }
-        NetworkMonitor.initInstance(this);
-        PhoneMonitor.initInstance(this);
-        SetupWizardUtils.disableComponentsForMissingFeatures(this);
+        mWizardNavigator = new WizardNavigator(this);
+        DeviceCapabilities.init(this);
+        mWizardNavigator.setPendingComponentStates(
+                SetupWizardUtils.disableComponentsForMissingFeatures(this));
         SetupWizardUtils.setMobileDataEnabled(this, false);
         sStatusBarManager = SetupWizardUtils.disableStatusBar(this);
-        mHandler.postDelayed(mRadioTimeoutRunnable, SetupWizardApp.RADIO_READY_TIMEOUT);
     }
 
     public static StatusBarManager getStatusBarManager() {
         return sStatusBarManager;
     }
 
-    public boolean isRadioReady() {
-        return mIsRadioReady;
-    }
-
-    public void setRadioReady(boolean radioReady) {
-        if (!mIsRadioReady && radioReady) {
-            mHandler.removeCallbacks(mRadioTimeoutRunnable);
+    /**
+     * Starts the network and phone monitors in the background, so the pages that need them
+     * do not pay for it, and disables the SIM pages that are not needed. Called once the first
+     * page has drawn.
+     */
+    public void prewarmMonitors() {
+        if (mMonitorsPrewarmed) {
+            return;
         }
-        mIsRadioReady = radioReady;
+        mMonitorsPrewarmed = true;
+        BackgroundExecutor.get().execute(() -> {
+            NetworkMonitor.prewarm(this);
+            PhoneMonitor.prewarm(this);
+            SetupWizardUtils.disableComponentsForSimState(this);
+        });
     }
 
     public boolean ignoreSimLocale() {
@@ -116,6 +121,10 @@ public class SetupWizardApp extends Application {
         mIgnoreSimLocale = ignoreSimLocale;
     }
 
+    public WizardNavigator getWizardNavigator() {
+        return mWizardNavigator;
+    }
+
     public Bundle getSettingsBundle() {
         return mSettingsBundle;
     }
@@ -26,6 +26,7 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.util.Log;
 
+import org.lineageos.setupwizard.util.FinishPipeline;
 import org.lineageos.setupwizard.util.PhoneMonitor;
 import org.lineageos.setupwizard.util.SetupWizardUtils;
 
@@ -41,6 +42,8 @@ public class SetupWizardExitActivity extends BaseSetupWizardActivity {
         }
         SetupWizardUtils.enableCaptivePortalDetection(this);
         PhoneMonitor.onSetupFinished();
+        // Only what the launcher depends on runs before it, the service does the rest
+        FinishPipeline.runBlockingStages(this);
         launchHome();
         finish();
         applyForwardTransition(TRANSITION_ID_FADE);
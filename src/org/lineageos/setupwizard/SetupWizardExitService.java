@@ -18,26 +18,37 @@ package org.lineageos.setupwizard;
 
 import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
 
-import android.annotation.Nullable;
-import android.app.IntentService;
+import android.app.Service;
 import android.content.Intent;
+import android.os.IBinder;
 import android.util.Log;
 
-import org.lineageos.setupwizard.util.SetupWizardUtils;
+import org.lineageos.setupwizard.util.FinishPipeline;
 
-public class SetupWizardExitService extends IntentService {
+/**
+ * Keeps the process alive while the background stages of the {@link FinishPipeline} run,
+ * after the home screen has already been launched.
+ */
+public class SetupWizardExitService extends Service {
 
     private static final String TAG = "SUWExitService";
 
-    public SetupWizardExitService() {
-        super(TAG);
-    }
-
     @Override
-    protected void onHandleIntent(@Nullable Intent intent) {
+    public int onStartCommand(Intent intent, int flags, int startId) {
         if (LOGV) {
-            Log.v(TAG, "onHandleIntent intent=" + intent.toString());
+            Log.v(TAG, "onStartCommand intent=" + intent);
         }
-        SetupWizardUtils.finishSetupWizard(this);
+        FinishPipeline.run(this).whenComplete((result, e) -> {
+            if (LOGV) {
+                Log.v(TAG, "finish pipeline done");
+            }
+            stopSelf(startId);
+        });
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
     }
 }
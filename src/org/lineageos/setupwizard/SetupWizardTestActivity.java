@@ -54,7 +54,8 @@ public class SetupWizardTestActivity extends Activity {
         Intent setupIntent = new Intent("android.intent.action.MAIN")
                 .addCategory("android.intent.category.HOME")
                 .addFlags(Intent.FLAG_ACTIVITY_CLEAR_TASK | Intent.FLAG_GRANT_READ_URI_PERMISSION);
-        SetupWizardUtils.disableComponentsForMissingFeatures(this);
+        ((SetupWizardApp) getApplication()).getWizardNavigator().setPendingComponentStates(
+                SetupWizardUtils.disableComponentsForMissingFeatures(this));
         startActivity(setupIntent);
         finish();
     }
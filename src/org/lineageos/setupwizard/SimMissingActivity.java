@@ -38,7 +38,7 @@ public class SimMissingActivity extends BaseSetupWizardActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        mPhoneMonitor = PhoneMonitor.getInstance();
+        mPhoneMonitor = PhoneMonitor.getInstance(this);
         if (!mPhoneMonitor.simMissing()) {
             finishAction(RESULT_OK);
         }
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.util;
+
+import static org.lineageos.setupwizard.SetupWizardApp.KEY_DETECT_CAPTIVE_PORTAL;
+import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+
+import org.lineageos.setupwizard.R;
+
+import org.lineageos.setupwizard.util.CaptivePortalProbes.Verdict;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Finds out whether a network is behind a captive portal.
+ *
+ * <p>The HTTP probe, the HTTPS probe and the fallback probe race each other on the
+ * {@link BackgroundExecutor}, see {@link CaptivePortalProbes}. A probe that fails, times out,
+ * or could not tell is ignored; if no probe can tell, the network is assumed not to be behind
+ * a portal.
+ *
+ * <p>Probes go through {@link Network#openConnection(URL)}, so they share the connection pool
+ * of the network.
+ *
+ * <p>Pages use {@link #check(Context, NetworkSnapshot)}, which only probes when neither the
+ * platform nor a recent probe already knows the answer. The platform's validation of a network
+ * only counts while its own detection is on, as without it portal networks get validated too.
+ * Setup turns the detection off for as long as it runs, see
+ * {@link SetupWizardUtils#disableCaptivePortalDetection(Context)}, so during setup validation
+ * is never trusted: every network is probed, and only the verdict cache avoids probing the
+ * same network again. A captive portal the platform did find is always trusted.
+ */
+public class CaptivePortalDetector {
+
+    public static final String TAG = CaptivePortalDetector.class.getSimpleName();
+
+    private static final String DEFAULT_HTTPS_URL = "https://www.google.com/generate_204";
+    private static final String DEFAULT_FALLBACK_URL = "http://www.google.com/gen_204";
+
+    private static final int SOCKET_TIMEOUT_MS = 10000;
+
+    private static final class CachedVerdict {
+        final boolean mIsPortal;
+        final long mExpiry;
+
+        CachedVerdict(boolean isPortal, long expiry) {
+            mIsPortal = isPortal;
+            mExpiry = expiry;
+        }
+    }
+
+    // Conclusive verdicts by network, so going back and forth between pages does not re-probe
+    private static final Map<Network, CachedVerdict> sVerdicts = new HashMap<>();
+
+    private final Network mNetwork;
+    private final CaptivePortalProbes mProbes;
+    private final long mVerdictTtl;
+
+    public CaptivePortalDetector(Context context, Network network) {
+        this(network, new CaptivePortalProbes(network::openConnection, SOCKET_TIMEOUT_MS),
+                context.getResources().getInteger(R.integer.captive_portal_verdict_ttl));
+        final ConnectivityManager cm = context.getSystemService(ConnectivityManager.class);
+        addProbe(cm.getCaptivePortalServerUrl(), false);
+        addProbe(getUrlSetting(context, Settings.Global.CAPTIVE_PORTAL_HTTPS_URL,
+                DEFAULT_HTTPS_URL), true);
+        addProbe(getUrlSetting(context, Settings.Global.CAPTIVE_PORTAL_FALLBACK_URL,
+                DEFAULT_FALLBACK_URL), false);
+    }
+
+    /**
+     * Probes with the given probes instead of those of the network, for tests.
+     */
+    CaptivePortalDetector(Network network, CaptivePortalProbes probes, long verdictTtl) {
+        mNetwork = network;
+        mProbes = probes;
+        mVerdictTtl = verdictTtl;
+    }
+
+    /**
+     * Tells whether the default network of the snapshot is behind a captive portal. The
+     * platform state is used when it has one: a captive portal always, a validated network
+     * only while the platform's detection is on. Then a verdict from a recent probe of the
+     * same network is used. Only when neither is known do the probes run.
+     *
+     * @return a future that completes with whether the network is behind a captive portal,
+     *         cancelling it cancels the probes
+     */
+    public static CompletableFuture<Boolean> check(Context context, NetworkSnapshot snapshot) {
+        return check(snapshot, isPlatformDetectionEnabled(context),
+                network -> new CaptivePortalDetector(context, network).detect());
+    }
+
+    /**
+     * @param platformDetects whether the platform checks for captive portals before it
+     *                        validates a network
+     * @param detect          starts probing a network
+     */
+    static CompletableFuture<Boolean> check(NetworkSnapshot snapshot, boolean platformDetects,
+            Function<Network, CompletableFuture<Boolean>> detect) {
+        final Network network = snapshot.getDefaultNetwork();
+        if (network == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        final boolean isPortal = snapshot.isCaptivePortal(network);
+        if (isPortal || (platformDetects && snapshot.isValidated(network))) {
+            if (LOGV) {
+                Log.v(TAG, "check() uses the platform state of " + network);
+            }
+            return CompletableFuture.completedFuture(isPortal);
+        }
+        final CachedVerdict verdict;
+        synchronized (sVerdicts) {
+            verdict = sVerdicts.get(network);
+        }
+        if (verdict != null && verdict.mExpiry > SystemClock.elapsedRealtime()) {
+            if (LOGV) {
+                Log.v(TAG, "check() uses the cached verdict of " + network);
+            }
+            return CompletableFuture.completedFuture(verdict.mIsPortal);
+        }
+        return detect.apply(network);
+    }
+
+    /**
+     * @return whether the platform currently checks networks for captive portals, which is
+     *         never the case while setup runs
+     */
+    private static boolean isPlatformDetectionEnabled(Context context) {
+        final ContentResolver resolver = context.getContentResolver();
+        return Settings.Global.getInt(resolver, KEY_DETECT_CAPTIVE_PORTAL, 1) != 0
+                && Settings.Global.getInt(resolver, Settings.Global.CAPTIVE_PORTAL_MODE,
+                        Settings.Global.CAPTIVE_PORTAL_MODE_PROMPT)
+                        != Settings.Global.CAPTIVE_PORTAL_MODE_IGNORE;
+    }
+
+    private static void putVerdict(Network network, boolean isPortal, long ttl) {
+        final long now = SystemClock.elapsedRealtime();
+        synchronized (sVerdicts) {
+            sVerdicts.values().removeIf(verdict -> verdict.mExpiry <= now);
+            sVerdicts.put(network, new CachedVerdict(isPortal, now + ttl));
+        }
+    }
+
+    private static String getUrlSetting(Context context, String name, String defaultUrl) {
+        final String url = Settings.Global.getString(context.getContentResolver(), name);
+        return url != null ? url : defaultUrl;
+    }
+
+    private void addProbe(String url, boolean https) {
+        try {
+            mProbes.add(new URL(url), https);
+        } catch (MalformedURLException e) {
+            Log.e(TAG, "Not a valid url " + url + ": " + e);
+        }
+    }
+
+    /**
+     * Starts the probes. Cancelling the returned future cancels the probes still running.
+     * A detector only runs once; create a new one to probe again.
+     *
+     * @return a future that completes with whether the network is behind a captive portal
+     */
+    public CompletableFuture<Boolean> detect() {
+        final CompletableFuture<Verdict> race = mProbes.race(BackgroundExecutor.get());
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        race.thenAccept(verdict -> {
+            if (verdict != Verdict.INCONCLUSIVE) {
+                putVerdict(mNetwork, verdict == Verdict.PORTAL, mVerdictTtl);
+            }
+            result.complete(verdict == Verdict.PORTAL);
+        });
+        result.whenComplete((isPortal, throwable) -> race.cancel(false));
+        return result;
+    }
+}
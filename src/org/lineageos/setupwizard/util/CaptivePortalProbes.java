@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.util;
+
+import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The probes of one captive portal check, raced against each other. The first conclusive
+ * answer wins and the probes still running are cancelled by disconnecting them.
+ *
+ * <p>Responses are read to the end rather than disconnected, which hands their connection
+ * back to the pool for the next request to the same host. Apart from logging this only uses
+ * java.net, so the host harness in benchmarks/ can run it against a stand-in server.
+ */
+class CaptivePortalProbes {
+
+    private static final String TAG = CaptivePortalProbes.class.getSimpleName();
+
+    enum Verdict {
+        NO_PORTAL,
+        PORTAL,
+        INCONCLUSIVE
+    }
+
+    interface ConnectionFactory {
+        URLConnection openConnection(URL url) throws IOException;
+    }
+
+    private static final class Probe {
+        final URL mUrl;
+        // HTTPS cannot be intercepted by a portal, so it can only tell that there is none
+        final boolean mHttps;
+
+        private HttpURLConnection mConnection;
+        private boolean mCancelled;
+
+        Probe(URL url, boolean https) {
+            mUrl = url;
+            mHttps = https;
+        }
+
+        Verdict run(ConnectionFactory connectionFactory, int socketTimeoutMs) {
+            HttpURLConnection connection = null;
+            try {
+                connection = (HttpURLConnection) connectionFactory.openConnection(mUrl);
+                synchronized (this) {
+                    if (mCancelled) {
+                        return Verdict.INCONCLUSIVE;
+                    }
+                    mConnection = connection;
+                }
+                connection.setInstanceFollowRedirects(false);
+                connection.setConnectTimeout(socketTimeoutMs);
+                connection.setReadTimeout(socketTimeoutMs);
+                connection.setUseCaches(false);
+                final int responseCode = connection.getResponseCode();
+                final Verdict verdict = getVerdict(responseCode);
+                if (LOGV) {
+                    Log.v(TAG, "Probe " + mUrl + " got " + responseCode + ": " + verdict);
+                }
+                drain(connection, responseCode);
+                return verdict;
+            } catch (IOException | RuntimeException e) {
+                // Some implementations throw unchecked exceptions when a connection is
+                // disconnected from another thread, as cancelling does
+                if (LOGV) {
+                    Log.v(TAG, "Probe " + mUrl + " failed: " + e);
+                }
+                if (connection != null) {
+                    connection.disconnect();
+                }
+                return Verdict.INCONCLUSIVE;
+            } finally {
+                // Done with the connection, cancelling must not close it any more
+                synchronized (this) {
+                    mConnection = null;
+                }
+            }
+        }
+
+        private Verdict getVerdict(int responseCode) {
+            if (responseCode == 204) {
+                return Verdict.NO_PORTAL;
+            }
+            // Anything else over plain HTTP was not answered by the real server, including
+            // timeouts from a proxy (408, 504), so go through captive portal login
+            return mHttps ? Verdict.INCONCLUSIVE : Verdict.PORTAL;
+        }
+
+        private static void drain(HttpURLConnection connection, int responseCode) {
+            try (InputStream in = responseCode >= 400
+                    ? connection.getErrorStream() : connection.getInputStream()) {
+                if (in != null) {
+                    final byte[] buffer = new byte[512];
+                    while (in.read(buffer) != -1) {
+                        // Discard
+                    }
+                }
+            } catch (IOException e) {
+                connection.disconnect();
+            }
+        }
+
+        void cancel() {
+            final HttpURLConnection connection;
+            synchronized (this) {
+                mCancelled = true;
+                connection = mConnection;
+            }
+            if (connection != null) {
+                // Makes a blocked connect or read throw, which ends the probe
+                connection.disconnect();
+            }
+        }
+    }
+
+    private final ConnectionFactory mConnectionFactory;
+    private final int mSocketTimeoutMs;
+    private final List<Probe> mProbes = new ArrayList<>(3);
+    private boolean mStarted;
+
+    CaptivePortalProbes(ConnectionFactory connectionFactory, int socketTimeoutMs) {
+        mConnectionFactory = connectionFactory;
+        mSocketTimeoutMs = socketTimeoutMs;
+    }
+
+    /**
+     * @param https whether the probe goes over HTTPS, and so can only tell there is no portal
+     */
+    void add(URL url, boolean https) {
+        mProbes.add(new Probe(url, https));
+    }
+
+    /**
+     * Starts all probes on the executor, which should run them side by side. Cancelling the
+     * returned future cancels the probes still running. The probes only race once.
+     *
+     * @return a future that completes with the first conclusive verdict, or with
+     *         {@link Verdict#INCONCLUSIVE} once no probe could tell
+     */
+    synchronized CompletableFuture<Verdict> race(Executor executor) {
+        if (mStarted) {
+            throw new IllegalStateException("race() was already called");
+        }
+        mStarted = true;
+        final CompletableFuture<Verdict> result = new CompletableFuture<>();
+        final long start = SystemClock.elapsedRealtime();
+        final AtomicInteger remaining = new AtomicInteger(mProbes.size());
+        for (Probe probe : mProbes) {
+            executor.execute(() -> {
+                try {
+                    if (!result.isDone()) {
+                        final Verdict verdict = probe.run(mConnectionFactory, mSocketTimeoutMs);
+                        if (verdict != Verdict.INCONCLUSIVE && result.complete(verdict)) {
+                            Log.i(TAG, "Probe " + probe.mUrl + " decided " + verdict
+                                    + " after " + (SystemClock.elapsedRealtime() - start) + "ms");
+                        }
+                    }
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        result.complete(Verdict.INCONCLUSIVE);
+                    }
+                }
+            });
+        }
+        if (mProbes.isEmpty()) {
+            result.complete(Verdict.INCONCLUSIVE);
+        }
+        result.whenComplete((verdict, throwable) -> {
+            for (Probe probe : mProbes) {
+                probe.cancel();
+            }
+        });
+        return result;
+    }
+}
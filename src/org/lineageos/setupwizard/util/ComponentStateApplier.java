@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.util;
+
+import static android.content.pm.PackageManager.COMPONENT_ENABLED_STATE_DEFAULT;
+import static android.content.pm.PackageManager.COMPONENT_ENABLED_STATE_DISABLED;
+import static android.content.pm.PackageManager.COMPONENT_ENABLED_STATE_ENABLED;
+import static android.content.pm.PackageManager.DONT_KILL_APP;
+
+import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Collects the enabled states a set of components should end up in, and applies them in one
+ * go. In a batch of several components, the current state of each is read once and only
+ * components whose state actually differs are written, as every write costs a package
+ * restrictions update and a PACKAGE_CHANGED broadcast. A single component is written
+ * straight away, since reading it first would only add a binder call. The change callback
+ * runs once per batch.
+ *
+ * <p>When the same component is set more than once, the last state wins.
+ */
+public class ComponentStateApplier {
+
+    private static final String TAG = ComponentStateApplier.class.getSimpleName();
+
+    private final Context mContext;
+    private final Runnable mOnChanged;
+    private final ArrayMap<ComponentName, Integer> mStates = new ArrayMap<>();
+
+    /**
+     * @param onChanged run after a batch changed at least one component, may be null
+     */
+    public ComponentStateApplier(Context context, Runnable onChanged) {
+        mContext = context;
+        mOnChanged = onChanged;
+    }
+
+    public ComponentStateApplier setState(ComponentName componentName, int enabledState) {
+        mStates.put(componentName, enabledState);
+        return this;
+    }
+
+    public ComponentStateApplier setStates(List<ComponentName> componentNames,
+            int enabledState) {
+        for (ComponentName componentName : componentNames) {
+            setState(componentName, enabledState);
+        }
+        return this;
+    }
+
+    public ComponentStateApplier disable(Class<?> cls) {
+        return setState(new ComponentName(mContext, cls), COMPONENT_ENABLED_STATE_DISABLED);
+    }
+
+    public ComponentStateApplier enable(Class<?> cls) {
+        return setState(new ComponentName(mContext, cls), COMPONENT_ENABLED_STATE_ENABLED);
+    }
+
+    public ComponentStateApplier reset(Class<?> cls) {
+        return setState(new ComponentName(mContext, cls), COMPONENT_ENABLED_STATE_DEFAULT);
+    }
+
+    /**
+     * Writes the states that differ from the current ones and clears the batch.
+     *
+     * @return the number of components whose state was written
+     */
+    public int apply() {
+        final PackageManager pm = mContext.getPackageManager();
+        final boolean diff = mStates.size() > 1;
+        int changed = 0;
+        for (int i = 0; i < mStates.size(); i++) {
+            final ComponentName componentName = mStates.keyAt(i);
+            final int enabledState = mStates.valueAt(i);
+            try {
+                if (diff && pm.getComponentEnabledSetting(componentName) == enabledState) {
+                    continue;
+                }
+                pm.setComponentEnabledSetting(componentName, enabledState, DONT_KILL_APP);
+                changed++;
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown component " + componentName, e);
+            }
+        }
+        if (LOGV) {
+            Log.v(TAG, "apply changed " + changed + " of " + mStates.size() + " components");
+        }
+        mStates.clear();
+        if (changed > 0 && mOnChanged != null) {
+            mOnChanged.run();
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.util;
+
+import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
+
+import android.app.AlarmManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.util.Log;
+
+import org.lineageos.setupwizard.SetupWizardApp;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * System settings chosen on the setup pages.
+ *
+ * <p>By default every choice is written to the system right away. With
+ * {@code ro.setupwizard.defer_settings} set, choices are only recorded in the settings bundle
+ * of {@link SetupWizardApp}, where a later choice for the same setting replaces the earlier
+ * one, and {@link #apply(Context)} writes what is left once setup completes. Going back and
+ * forth between pages then costs no system writes at all. Pages read the pending values back
+ * through the getters here, so they show the choices as if they were already applied.
+ *
+ * <p>The recorded choices are also saved to the preferences and restored into the bundle when
+ * it is first used, as the navigation journal resumes past their pages after a crash or a
+ * reboot, and they would be lost otherwise.
+ *
+ * <p>The bundle is only accessed while holding its lock, as it is written on the main thread
+ * and applied by the {@link FinishPipeline} on a background thread.
+ */
+public final class DeferredSettings {
+
+    private static final String TAG = DeferredSettings.class.getSimpleName();
+
+    private static final String PROP_DEFER_SETTINGS = "ro.setupwizard.defer_settings";
+
+    private static final String KEY_LOCATION_ENABLED = "location_enabled";
+    private static final String KEY_TIME_ZONE = "time_zone";
+    private static final String KEY_TIME = "time";
+    // Elapsed realtime at which KEY_TIME was chosen, to keep the clock running until applied
+    private static final String KEY_TIME_ELAPSED = "time_elapsed";
+    // Only saved, to keep the clock running across a reboot, which resets the elapsed realtime
+    private static final String KEY_TIME_WALL = "time_wall";
+    private static final String KEY_BOOT_COUNT = "boot_count";
+
+    private static final String PREF_PREFIX = "deferred_";
+    private static final String[] PREF_KEYS = { KEY_LOCATION_ENABLED, KEY_TIME_ZONE, KEY_TIME,
+            KEY_TIME_ELAPSED, KEY_TIME_WALL, KEY_BOOT_COUNT };
+
+    private static final boolean sEnabled = SystemProperties.getBoolean(PROP_DEFER_SETTINGS,
+            false);
+
+    // Guarded by the bundle
+    private static boolean sRestored;
+
+    private DeferredSettings() {
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static void setLocationEnabled(Context context, boolean enabled) {
+        if (sEnabled) {
+            final Bundle bundle = getBundle(context);
+            synchronized (bundle) {
+                bundle.putBoolean(KEY_LOCATION_ENABLED, enabled);
+            }
+            SetupWizardUtils.getPrefs(context).edit()
+                    .putBoolean(PREF_PREFIX + KEY_LOCATION_ENABLED, enabled)
+                    .apply();
+        } else {
+            applyLocationEnabled(context, enabled);
+        }
+    }
+
+    public static boolean isLocationEnabled(Context context) {
+        final Bundle bundle = getBundle(context);
+        synchronized (bundle) {
+            if (bundle.containsKey(KEY_LOCATION_ENABLED)) {
+                return bundle.getBoolean(KEY_LOCATION_ENABLED);
+            }
+        }
+        return context.getSystemService(LocationManager.class).isLocationEnabled();
+    }
+
+    public static void setTimeZone(Context context, String timeZoneId) {
+        if (sEnabled) {
+            final Bundle bundle = getBundle(context);
+            synchronized (bundle) {
+                bundle.putString(KEY_TIME_ZONE, timeZoneId);
+            }
+            SetupWizardUtils.getPrefs(context).edit()
+                    .putString(PREF_PREFIX + KEY_TIME_ZONE, timeZoneId)
+                    .apply();
+        } else {
+            context.getSystemService(AlarmManager.class).setTimeZone(timeZoneId);
+        }
+    }
+
+    public static TimeZone getTimeZone(Context context) {
+        final Bundle bundle = getBundle(context);
+        final String timeZoneId;
+        synchronized (bundle) {
+            timeZoneId = bundle.getString(KEY_TIME_ZONE);
+        }
+        return timeZoneId != null ? TimeZone.getTimeZone(timeZoneId) : TimeZone.getDefault();
+    }
+
+    public static void setTime(Context context, long millis) {
+        if (sEnabled) {
+            final Bundle bundle = getBundle(context);
+            final long elapsed = SystemClock.elapsedRealtime();
+            synchronized (bundle) {
+                bundle.putLong(KEY_TIME, millis);
+                bundle.putLong(KEY_TIME_ELAPSED, elapsed);
+            }
+            SetupWizardUtils.getPrefs(context).edit()
+                    .putLong(PREF_PREFIX + KEY_TIME, millis)
+                    .putLong(PREF_PREFIX + KEY_TIME_ELAPSED, elapsed)
+                    .putLong(PREF_PREFIX + KEY_TIME_WALL, System.currentTimeMillis())
+                    .putInt(PREF_PREFIX + KEY_BOOT_COUNT, getBootCount(context))
+                    .apply();
+        } else {
+            context.getSystemService(AlarmManager.class).setTime(millis);
+        }
+    }
+
+    /**
+     * @return a calendar set to the current time, in the time zone the user chose
+     */
+    public static Calendar getCalendar(Context context) {
+        final Calendar calendar = Calendar.getInstance(getTimeZone(context));
+        final Bundle bundle = getBundle(context);
+        synchronized (bundle) {
+            if (bundle.containsKey(KEY_TIME)) {
+                calendar.setTimeInMillis(getPendingTime(bundle));
+            }
+        }
+        return calendar;
+    }
+
+    /**
+     * Writes all recorded choices, once each, on the calling thread, and clears them once
+     * written. Does nothing unless settings are deferred. Runs as a stage of the
+     * {@link FinishPipeline}, so the exit service keeps the process alive until the writes
+     * are done.
+     */
+    static void apply(Context context) {
+        final Bundle bundle = getBundle(context);
+        final Bundle pending;
+        synchronized (bundle) {
+            if (bundle.isEmpty()) {
+                return;
+            }
+            pending = new Bundle(bundle);
+        }
+        final long start = SystemClock.elapsedRealtime();
+        if (pending.containsKey(KEY_TIME_ZONE)) {
+            context.getSystemService(AlarmManager.class)
+                    .setTimeZone(pending.getString(KEY_TIME_ZONE));
+        }
+        if (pending.containsKey(KEY_TIME)) {
+            context.getSystemService(AlarmManager.class).setTime(getPendingTime(pending));
+        }
+        if (pending.containsKey(KEY_LOCATION_ENABLED)) {
+            applyLocationEnabled(context, pending.getBoolean(KEY_LOCATION_ENABLED));
+        }
+        // Only now, so a retry of the stage after a failed write writes them again
+        synchronized (bundle) {
+            bundle.clear();
+        }
+        final SharedPreferences.Editor editor = SetupWizardUtils.getPrefs(context).edit();
+        for (String key : PREF_KEYS) {
+            editor.remove(PREF_PREFIX + key);
+        }
+        // Synchronously, the process may be gone once the pipeline is done
+        editor.commit();
+        if (LOGV) {
+            Log.v(TAG, "applied " + pending.keySet() + " in "
+                    + (SystemClock.elapsedRealtime() - start) + "ms");
+        }
+    }
+
+    private static long getPendingTime(Bundle bundle) {
+        return bundle.getLong(KEY_TIME)
+                + SystemClock.elapsedRealtime() - bundle.getLong(KEY_TIME_ELAPSED);
+    }
+
+    private static void applyLocationEnabled(Context context, boolean enabled) {
+        context.getSystemService(LocationManager.class).setLocationEnabledForUser(enabled,
+                new UserHandle(UserHandle.USER_CURRENT));
+    }
+
+    private static Bundle getBundle(Context context) {
+        final Bundle bundle =
+                ((SetupWizardApp) context.getApplicationContext()).getSettingsBundle();
+        synchronized (bundle) {
+            if (!sRestored) {
+                sRestored = true;
+                if (sEnabled) {
+                    restore(context, bundle);
+                }
+            }
+        }
+        return bundle;
+    }
+
+    /**
+     * Puts the choices saved by an earlier process back into the bundle.
+     */
+    private static void restore(Context context, Bundle bundle) {
+        final SharedPreferences prefs = SetupWizardUtils.getPrefs(context);
+        if (prefs.contains(PREF_PREFIX + KEY_LOCATION_ENABLED)) {
+            bundle.putBoolean(KEY_LOCATION_ENABLED,
+                    prefs.getBoolean(PREF_PREFIX + KEY_LOCATION_ENABLED, false));
+        }
+        final String timeZoneId = prefs.getString(PREF_PREFIX + KEY_TIME_ZONE, null);
+        if (timeZoneId != null) {
+            bundle.putString(KEY_TIME_ZONE, timeZoneId);
+        }
+        if (prefs.contains(PREF_PREFIX + KEY_TIME)) {
+            final long time = prefs.getLong(PREF_PREFIX + KEY_TIME, 0);
+            if (prefs.getInt(PREF_PREFIX + KEY_BOOT_COUNT, -1) == getBootCount(context)) {
+                bundle.putLong(KEY_TIME, time);
+                bundle.putLong(KEY_TIME_ELAPSED, prefs.getLong(PREF_PREFIX + KEY_TIME_ELAPSED, 0));
+            } else {
+                // Rebooted since, the wall clock is all that kept running
+                bundle.putLong(KEY_TIME, time + System.currentTimeMillis()
+                        - prefs.getLong(PREF_PREFIX + KEY_TIME_WALL, 0));
+                bundle.putLong(KEY_TIME_ELAPSED, SystemClock.elapsedRealtime());
+            }
+        }
+        if (LOGV && !bundle.isEmpty()) {
+            Log.v(TAG, "restored " + bundle.keySet());
+        }
+    }
+
+    private static int getBootCount(Context context) {
+        return Settings.Global.getInt(context.getContentResolver(), Settings.Global.BOOT_COUNT,
+                -1);
+    }
+}
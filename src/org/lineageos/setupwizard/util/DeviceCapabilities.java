@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.util;
+
+import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.hardware.face.FaceManager;
+import android.hardware.fingerprint.FingerprintManager;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable snapshot of the device features the setup wizard adapts to.
+ *
+ * <p>The snapshot is probed once, at application start, with every probe running in parallel
+ * on the {@link BackgroundExecutor}. Readers get the published snapshot without locking. A
+ * reader that asks before the probes are done runs the ones still queued on its own thread,
+ * so it never waits behind the pool it may be running on. Features never change at runtime;
+ * the only volatile part, whether the default network is ethernet, is kept current from
+ * default network callbacks by publishing a new snapshot.
+ */
+public final class DeviceCapabilities {
+
+    private static final String TAG = DeviceCapabilities.class.getSimpleName();
+
+    private static final int PROBE_WIFI = 0;
+    private static final int PROBE_TELEPHONY = 1;
+    private static final int PROBE_LEANBACK = 2;
+    private static final int PROBE_FINGERPRINT = 3;
+    private static final int PROBE_FACE = 4;
+    private static final int PROBE_ETHERNET = 5;
+    private static final int PROBE_COUNT = 6;
+
+    private static final AtomicReference<DeviceCapabilities> sCapabilities =
+            new AtomicReference<>();
+    private static CompletableFuture<DeviceCapabilities> sFuture;
+    private static Probe[] sProbes;
+
+    private static final class Probe extends FutureTask<Boolean> {
+        private final Runnable mOnDone;
+
+        Probe(Callable<Boolean> callable, Runnable onDone) {
+            super(callable);
+            mOnDone = onDone;
+        }
+
+        @Override
+        protected void done() {
+            mOnDone.run();
+        }
+
+        /**
+         * @return the result of the finished probe, false if it failed
+         */
+        boolean getResult() {
+            try {
+                return get();
+            } catch (ExecutionException | InterruptedException e) {
+                Log.w(TAG, "Probe failed", e);
+                return false;
+            }
+        }
+    }
+
+    private final boolean mWifi;
+    private final boolean mTelephony;
+    private final boolean mLeanback;
+    private final boolean mFingerprint;
+    private final boolean mFace;
+    private final boolean mEthernetConnected;
+
+    private DeviceCapabilities(boolean wifi, boolean telephony, boolean leanback,
+            boolean fingerprint, boolean face, boolean ethernetConnected) {
+        mWifi = wifi;
+        mTelephony = telephony;
+        mLeanback = leanback;
+        mFingerprint = fingerprint;
+        mFace = face;
+        mEthernetConnected = ethernetConnected;
+    }
+
+    public boolean hasWifi() {
+        return mWifi;
+    }
+
+    public boolean hasTelephony() {
+        return mTelephony;
+    }
+
+    public boolean hasLeanback() {
+        return mLeanback;
+    }
+
+    public boolean hasFingerprint() {
+        return mFingerprint;
+    }
+
+    public boolean hasFace() {
+        return mFace;
+    }
+
+    public boolean hasBiometric() {
+        return mFingerprint || mFace;
+    }
+
+    public boolean isEthernetConnected() {
+        return mEthernetConnected;
+    }
+
+    private DeviceCapabilities withEthernetConnected(boolean ethernetConnected) {
+        if (ethernetConnected == mEthernetConnected) {
+            return this;
+        }
+        return new DeviceCapabilities(mWifi, mTelephony, mLeanback, mFingerprint, mFace,
+                ethernetConnected);
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceCapabilities{" +
+                "wifi=" + mWifi +
+                ", telephony=" + mTelephony +
+                ", leanback=" + mLeanback +
+                ", fingerprint=" + mFingerprint +
+                ", face=" + mFace +
+                ", ethernetConnected=" + mEthernetConnected +
+                '}';
+    }
+
+    /**
+     * Starts probing, unless that already happened. Called from SetupWizardApp.onCreate.
+     *
+     * @return a future completing with the first snapshot, on the thread that finished the
+     *         last probe
+     */
+    public static synchronized CompletableFuture<DeviceCapabilities> init(Context context) {
+        startProbes(context);
+        return sFuture;
+    }
+
+    /**
+     * @return the current snapshot, running the probes no background thread has picked up yet
+     *         on the calling thread if they are not done
+     */
+    public static DeviceCapabilities get(Context context) {
+        final DeviceCapabilities capabilities = sCapabilities.get();
+        if (capabilities != null) {
+            return capabilities;
+        }
+        // No-op for the probes already started elsewhere, steals the others from the queue
+        for (Probe probe : startProbes(context)) {
+            probe.run();
+        }
+        return init(context).join();
+    }
+
+    private static synchronized Probe[] startProbes(Context context) {
+        if (sProbes == null) {
+            sFuture = new CompletableFuture<>();
+            sProbes = probe(context.getApplicationContext(), sFuture);
+        }
+        return sProbes;
+    }
+
+    private static Probe[] probe(Context context, CompletableFuture<DeviceCapabilities> future) {
+        final long start = SystemClock.elapsedRealtime();
+        final PackageManager pm = context.getPackageManager();
+        final Probe[] probes = new Probe[PROBE_COUNT];
+        final AtomicInteger remaining = new AtomicInteger(PROBE_COUNT);
+        final Runnable onDone = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                publish(context, probes, future, start);
+            }
+        };
+        probes[PROBE_WIFI] = new Probe(
+                () -> pm.hasSystemFeature(PackageManager.FEATURE_WIFI), onDone);
+        probes[PROBE_TELEPHONY] = new Probe(
+                () -> pm.hasSystemFeature(PackageManager.FEATURE_TELEPHONY), onDone);
+        probes[PROBE_LEANBACK] = new Probe(
+                () -> pm.hasSystemFeature(PackageManager.FEATURE_LEANBACK), onDone);
+        probes[PROBE_FINGERPRINT] = new Probe(() -> probeFingerprint(context), onDone);
+        probes[PROBE_FACE] = new Probe(() -> probeFace(context), onDone);
+        probes[PROBE_ETHERNET] = new Probe(() -> probeEthernetConnected(context), onDone);
+        final Executor executor = BackgroundExecutor.get();
+        for (Probe probe : probes) {
+            executor.execute(probe);
+        }
+        return probes;
+    }
+
+    private static void publish(Context context, Probe[] probes,
+            CompletableFuture<DeviceCapabilities> future, long start) {
+        final DeviceCapabilities capabilities = new DeviceCapabilities(
+                probes[PROBE_WIFI].getResult(), probes[PROBE_TELEPHONY].getResult(),
+                probes[PROBE_LEANBACK].getResult(), probes[PROBE_FINGERPRINT].getResult(),
+                probes[PROBE_FACE].getResult(), probes[PROBE_ETHERNET].getResult());
+        sCapabilities.set(capabilities);
+        if (LOGV) {
+            Log.v(TAG, "probed " + capabilities + " in "
+                    + (SystemClock.elapsedRealtime() - start) + "ms");
+        }
+        trackEthernet(context);
+        future.complete(capabilities);
+    }
+
+    private static boolean probeFingerprint(Context context) {
+        if (!context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_FINGERPRINT)) {
+            return false;
+        }
+        FingerprintManager fingerprintManager = context.getSystemService(
+                FingerprintManager.class);
+        return fingerprintManager != null && fingerprintManager.isHardwareDetected();
+    }
+
+    private static boolean probeFace(Context context) {
+        if (!context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_FACE)) {
+            return false;
+        }
+        FaceManager faceManager = context.getSystemService(FaceManager.class);
+        return faceManager != null && faceManager.isHardwareDetected();
+    }
+
+    private static boolean probeEthernetConnected(Context context) {
+        ConnectivityManager cm = context.getSystemService(ConnectivityManager.class);
+        NetworkInfo ni = cm != null ? cm.getActiveNetworkInfo() : null;
+        return ni != null && ni.getType() == ConnectivityManager.TYPE_ETHERNET;
+    }
+
+    /**
+     * Publishes a new snapshot whenever the default network becomes or stops being ethernet,
+     * the same condition the probe checks. Registering delivers the current default network,
+     * so no change is missed after the probe.
+     */
+    private static void trackEthernet(Context context) {
+        ConnectivityManager cm = context.getSystemService(ConnectivityManager.class);
+        if (cm == null) {
+            return;
+        }
+        cm.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onCapabilitiesChanged(Network network,
+                    NetworkCapabilities networkCapabilities) {
+                update(networkCapabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET));
+            }
+
+            @Override
+            public void onLost(Network network) {
+                update(false);
+            }
+
+            private void update(boolean connected) {
+                DeviceCapabilities capabilities = sCapabilities.updateAndGet(
+                        c -> c.withEthernetConnected(connected));
+                if (LOGV) {
+                    Log.v(TAG, "ethernet update " + capabilities);
+                }
+            }
+        });
+    }
+}
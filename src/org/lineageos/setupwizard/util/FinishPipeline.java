@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.util;
+
+import static android.content.pm.PackageManager.COMPONENT_ENABLED_STATE_DISABLED;
+import static android.content.pm.PackageManager.GET_RECEIVERS;
+import static android.content.pm.PackageManager.GET_SERVICES;
+
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+
+import org.lineageos.setupwizard.SetupWizardApp;
+import org.lineageos.setupwizard.wizardmanager.WizardManager;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The work needed to leave setup, split into ordered stages.
+ *
+ * <p>Only marking the device provisioned and the user set up has to happen before the home
+ * screen is launched; it runs on the caller's thread. All other stages run afterwards, in
+ * order, on the {@link BackgroundExecutor}. Each stage succeeds at most once per process and
+ * never runs twice at the same time; a caller reaching a stage that is already running waits
+ * for it. A stage that failed runs again the next time the pipeline is started, so the
+ * pipeline can safely be started again from wherever setup may end. Each stage logs how long
+ * it took.
+ */
+public final class FinishPipeline {
+
+    private static final String TAG = FinishPipeline.class.getSimpleName();
+
+    private enum Stage {
+        MARK_PROVISIONED(true) {
+            @Override
+            void run(Context context) {
+                ContentResolver contentResolver = context.getContentResolver();
+                Settings.Global.putInt(contentResolver,
+                        Settings.Global.DEVICE_PROVISIONED, 1);
+                Settings.Secure.putInt(contentResolver,
+                        Settings.Secure.USER_SETUP_COMPLETE, 1);
+                if (SetupWizardUtils.hasLeanback(context)) {
+                    Settings.Secure.putInt(contentResolver,
+                            Settings.Secure.TV_USER_SETUP_COMPLETE, 1);
+                }
+            }
+        },
+        APPLY_DEFERRED_SETTINGS(false) {
+            @Override
+            void run(Context context) {
+                DeferredSettings.apply(context);
+            }
+        },
+        DISABLE_WIZARD(false) {
+            @Override
+            void run(Context context) {
+                ComponentStateApplier applier = SetupWizardUtils.newComponentStateApplier(context)
+                        .disable(WizardManager.class);
+                ComponentName homeComponent = SetupWizardUtils.getHomeComponent(context);
+                if (homeComponent != null) {
+                    applier.setState(homeComponent, COMPONENT_ENABLED_STATE_DISABLED);
+                } else {
+                    Log.w(TAG, "Home component not found. Skipping.");
+                }
+                applier.apply();
+            }
+        },
+        BROADCAST_FINISHED(false) {
+            @Override
+            void run(Context context) {
+                context.sendStickyBroadcastAsUser(
+                        new Intent(SetupWizardApp.ACTION_FINISHED),
+                        Binder.getCallingUserHandle());
+            }
+        },
+        DISABLE_COMPONENT_SETS(false) {
+            @Override
+            void run(Context context) {
+                SetupWizardUtils.disableComponentSets(context, GET_RECEIVERS | GET_SERVICES);
+            }
+        };
+
+        final boolean mBlocking;
+
+        Stage(boolean blocking) {
+            mBlocking = blocking;
+        }
+
+        abstract void run(Context context);
+    }
+
+    // Stages that are running or succeeded; failed stages are removed so they can run again
+    private static final ConcurrentHashMap<Stage, StageTask> sStages = new ConcurrentHashMap<>();
+    private static CompletableFuture<Void> sBackgroundStages;
+
+    private FinishPipeline() {
+    }
+
+    /**
+     * Runs the stages that must complete before the home screen is launched, on the calling
+     * thread.
+     *
+     * @throws RuntimeException thrown by a failed stage
+     */
+    public static void runBlockingStages(Context context) {
+        for (Stage stage : Stage.values()) {
+            if (stage.mBlocking) {
+                final Throwable failure = runStage(context, stage);
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                } else if (failure != null) {
+                    throw new IllegalStateException("Stage " + stage + " failed", failure);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the blocking stages if needed, then starts the remaining stages in the background.
+     *
+     * @return a future completing once all stages ran, exceptionally if any of them failed
+     */
+    public static CompletableFuture<Void> run(Context context) {
+        runBlockingStages(context);
+        final Context appContext = context.getApplicationContext();
+        synchronized (FinishPipeline.class) {
+            if (sBackgroundStages == null) {
+                final CompletableFuture<Void> stages = CompletableFuture.runAsync(
+                        () -> runBackgroundStages(appContext), BackgroundExecutor.get());
+                sBackgroundStages = stages;
+                // Forget a failed run, so the next start retries the stages that failed
+                stages.whenComplete((result, e) -> {
+                    if (e != null) {
+                        synchronized (FinishPipeline.class) {
+                            if (sBackgroundStages == stages) {
+                                sBackgroundStages = null;
+                            }
+                        }
+                    }
+                });
+            }
+            return sBackgroundStages;
+        }
+    }
+
+    private static void runBackgroundStages(Context context) {
+        Stage failed = null;
+        for (Stage stage : Stage.values()) {
+            // Keep going after a failure, the later stages do not depend on earlier ones
+            if (!stage.mBlocking && runStage(context, stage) != null && failed == null) {
+                failed = stage;
+            }
+        }
+        if (failed != null) {
+            throw new IllegalStateException("Stage " + failed + " failed");
+        }
+    }
+
+    /**
+     * Runs the stage on the calling thread, unless it is already running elsewhere, in which
+     * case this waits for it, or already succeeded.
+     *
+     * @return what the stage threw, or null if it succeeded
+     */
+    private static Throwable runStage(Context context, Stage stage) {
+        StageTask task = sStages.get(stage);
+        if (task == null) {
+            final StageTask newTask = new StageTask(context, stage);
+            task = sStages.putIfAbsent(stage, newTask);
+            if (task == null) {
+                task = newTask;
+            }
+        }
+        // No-op if the stage already started elsewhere
+        task.run();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    task.get();
+                    return null;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class StageTask extends FutureTask<Void> {
+        private final Stage mStage;
+
+        StageTask(Context context, Stage stage) {
+            super(() -> {
+                final long start = SystemClock.elapsedRealtime();
+                stage.run(context);
+                Log.i(TAG, "Stage " + stage + " took "
+                        + (SystemClock.elapsedRealtime() - start) + "ms");
+                return null;
+            });
+            mStage = stage;
+        }
+
+        @Override
+        protected void done() {
+            try {
+                get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e(TAG, "Stage " + mStage + " failed", e.getCause());
+                // Do not remember failures, so the next start of the pipeline retries
+                sStages.remove(mStage, this);
+            }
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2017 The LineageOS Project
+ * Copyright (C) 2021 The LineageOS Project
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -18,101 +18,236 @@ package org.lineageos.setupwizard.util;
 
 import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
 import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Tracks the networks of the device from {@link ConnectivityManager.NetworkCallback}s: their
+ * transports, whether they are validated or behind a captive portal, and which one is the
+ * default network. The state is published as an immutable {@link NetworkSnapshot}, and
+ * listeners are told about every change.
+ *
+ * <p>The monitor is created on first use, or ahead of it by {@link #prewarm(Context)}, from
+ * any thread. Callbacks arrive on the connectivity thread, not on the main thread.
+ *
+ * <p>Pages that have to wait for the network use {@link #await(Predicate, long)} and friends
+ * instead of polling or fixed delays: the returned future completes on the main thread as soon
+ * as the condition holds, and cancelling it stops the wait.
+ */
 public class NetworkMonitor {
 
     public static final String TAG = NetworkMonitor.class.getSimpleName();
 
-    private static NetworkMonitor sInstance;
+    public interface Listener {
+        void onNetworkSnapshotChanged(NetworkSnapshot snapshot);
+    }
 
-    private final BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
-        public void onReceive(Context context, Intent intent) {
-            if (LOGV) {
-                Log.v(TAG, intent.toString());
-            }
-            NetworkMonitor.this.updateNetworkStatus(context);
+    private static final class Registration {
+        final Listener mListener;
+        final Executor mExecutor;
+
+        Registration(Listener listener, Executor executor) {
+            mListener = listener;
+            mExecutor = executor;
         }
-    };
-    private Context mContext = null;
-    private boolean mNetworkConnected = false;
-    private NetworkInfo mNetworkInfo = null;
+    }
+
+    private static NetworkMonitor sInstance;
+
+    private final CopyOnWriteArrayList<Registration> mRegistrations =
+            new CopyOnWriteArrayList<>();
+    private volatile NetworkSnapshot mSnapshot = NetworkSnapshot.EMPTY;
 
-    public static void initInstance(Context context) {
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ConnectivityManager.NetworkCallback mNetworkCallback =
+            new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onCapabilitiesChanged(Network network,
+                        NetworkCapabilities capabilities) {
+                    update(s -> s.withNetwork(network, capabilities));
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    update(s -> s.withoutNetwork(network));
+                }
+            };
+
+    private final ConnectivityManager.NetworkCallback mDefaultNetworkCallback =
+            new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    update(s -> s.withDefaultNetwork(network));
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    update(s -> network.equals(s.getDefaultNetwork())
+                            ? s.withDefaultNetwork(null) : s);
+                }
+            };
+
+    public static synchronized NetworkMonitor getInstance(Context context) {
         if (sInstance == null) {
             sInstance = new NetworkMonitor(context.getApplicationContext());
         }
+        return sInstance;
     }
 
-    public static NetworkMonitor getInstance() {
-        return sInstance;
+    public static void prewarm(Context context) {
+        getInstance(context);
     }
 
-    public NetworkMonitor(Context context) {
-        mContext = context;
+    private NetworkMonitor(Context context) {
         if (LOGV) {
             Log.v(TAG, "Starting NetworkMonitor");
         }
-        IntentFilter filter = new IntentFilter();
-        filter.addAction("android.net.conn.CONNECTIVITY_CHANGE");
-        context.registerReceiver(mBroadcastReceiver, filter);
-        new Handler().post(new Runnable() {
-            public void run() {
-                updateNetworkStatus(mContext);
+        ConnectivityManager cm = context.getSystemService(ConnectivityManager.class);
+        if (cm == null) {
+            return;
+        }
+        // Registering replays the current networks, but asynchronously. The first reader is
+        // usually right behind, so seed the snapshot with the current state now.
+        final NetworkRequest request = new NetworkRequest.Builder().build();
+        NetworkSnapshot snapshot = NetworkSnapshot.EMPTY;
+        for (Network network : cm.getAllNetworks()) {
+            NetworkCapabilities capabilities = cm.getNetworkCapabilities(network);
+            if (capabilities != null && request.canBeSatisfiedBy(capabilities)) {
+                snapshot = snapshot.withNetwork(network, capabilities);
             }
-        });
+        }
+        mSnapshot = snapshot.withDefaultNetwork(cm.getActiveNetwork());
+        cm.registerNetworkCallback(request, mNetworkCallback);
+        cm.registerDefaultNetworkCallback(mDefaultNetworkCallback);
+    }
+
+    private void update(UnaryOperator<NetworkSnapshot> change) {
+        final NetworkSnapshot snapshot;
+        synchronized (this) {
+            final NetworkSnapshot previous = mSnapshot;
+            snapshot = change.apply(previous);
+            if (snapshot == previous) {
+                return;
+            }
+            mSnapshot = snapshot;
+        }
+        if (LOGV) {
+            Log.v(TAG, "update " + snapshot);
+        }
+        for (Registration registration : mRegistrations) {
+            registration.mExecutor.execute(
+                    () -> registration.mListener.onNetworkSnapshotChanged(snapshot));
+        }
+    }
+
+    public NetworkSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Registers a listener for snapshot changes. It is not called with the current snapshot.
+     */
+    public void addListener(Listener listener, Executor executor) {
+        mRegistrations.add(new Registration(listener, executor));
+    }
+
+    public void removeListener(Listener listener) {
+        mRegistrations.removeIf(registration -> registration.mListener == listener);
     }
 
     public boolean isNetworkConnected() {
+        final boolean connected = mSnapshot.isConnected();
         if (LOGV) {
-            Log.v(TAG, "isNetworkConnected() returns " + mNetworkConnected);
+            Log.v(TAG, "isNetworkConnected() returns " + connected);
         }
-        return mNetworkConnected;
+        return connected;
     }
 
     public boolean isWifiConnected() {
-        boolean wifiConnected = (mNetworkConnected && mNetworkInfo != null &&
-                mNetworkInfo.getType() == 1);
+        final boolean wifiConnected = mSnapshot.isWifiConnected();
         if (LOGV) {
             Log.v(TAG, "isWifiConnected() returns " + wifiConnected);
         }
         return wifiConnected;
     }
 
-    private void onNetworkConnected(NetworkInfo ni) {
-        if (LOGV) {
-            Log.v(TAG, "onNetworkConnected()");
+    /**
+     * Waits for a condition on the networks.
+     *
+     * <p>The future completes with the first snapshot that satisfies the condition, right away
+     * if the current one does. Otherwise it completes on the main thread, either with the
+     * snapshot or, once the timeout passes, exceptionally with a {@link TimeoutException}.
+     * Cancel it, for example when the page waiting on it goes away, to stop waiting early.
+     *
+     * @param timeoutMillis how long to wait at most, or 0 to wait until cancelled
+     */
+    public CompletableFuture<NetworkSnapshot> await(Predicate<NetworkSnapshot> condition,
+            long timeoutMillis) {
+        final CompletableFuture<NetworkSnapshot> future = new CompletableFuture<>();
+        final Listener listener = snapshot -> {
+            if (condition.test(snapshot)) {
+                future.complete(snapshot);
+            }
+        };
+        final Runnable timeout = () -> future.completeExceptionally(
+                new TimeoutException("Network condition not met in " + timeoutMillis + "ms"));
+        // Register before testing the current snapshot, so no change can slip in between
+        addListener(listener, mMainHandler::post);
+        final NetworkSnapshot snapshot = mSnapshot;
+        if (condition.test(snapshot)) {
+            future.complete(snapshot);
+        } else if (timeoutMillis > 0) {
+            mMainHandler.postDelayed(timeout, timeoutMillis);
         }
-        mNetworkConnected = true;
-        mNetworkInfo = ni;
+        future.whenComplete((s, t) -> {
+            removeListener(listener);
+            mMainHandler.removeCallbacks(timeout);
+            if (LOGV) {
+                Log.v(TAG, "await() done, snapshot=" + s + " throwable=" + t);
+            }
+        });
+        return future;
     }
 
-    private void onNetworkDisconnected() {
-        if (LOGV) {
-            Log.v(TAG, "onNetworkDisconnected()");
-        }
-        mNetworkConnected = false;
-        mNetworkInfo = null;
+    /**
+     * Waits for the default network to be validated to reach the internet.
+     *
+     * @see #await(Predicate, long)
+     */
+    public CompletableFuture<NetworkSnapshot> awaitValidated(long timeoutMillis) {
+        return await(NetworkSnapshot::isValidated, timeoutMillis);
     }
 
-    private boolean updateNetworkStatus(Context context) {
-        ConnectivityManager cm = context.getSystemService(ConnectivityManager.class);
-        if (cm != null) {
-            NetworkInfo ni = cm.getActiveNetworkInfo();
-            boolean isConnected = ni != null && ni.isConnected();
-            if (isConnected && !mNetworkConnected) {
-                onNetworkConnected(ni);
-            } else if (!isConnected && mNetworkConnected) {
-                onNetworkDisconnected();
-            }
-        }
-        return mNetworkConnected;
+    /**
+     * Waits for any network that uses the transport, one of NetworkCapabilities.TRANSPORT_*.
+     *
+     * @see #await(Predicate, long)
+     */
+    public CompletableFuture<NetworkSnapshot> awaitTransport(int transport,
+            long timeoutMillis) {
+        return await(s -> s.hasTransport(transport), timeoutMillis);
+    }
+
+    /**
+     * Waits for a default network, whether or not it reaches the internet.
+     *
+     * @see #await(Predicate, long)
+     */
+    public CompletableFuture<NetworkSnapshot> awaitConnected(long timeoutMillis) {
+        return await(NetworkSnapshot::isConnected, timeoutMillis);
     }
 }
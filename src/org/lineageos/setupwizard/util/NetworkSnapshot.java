@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.util;
+
+import static android.net.NetworkCapabilities.NET_CAPABILITY_CAPTIVE_PORTAL;
+import static android.net.NetworkCapabilities.NET_CAPABILITY_VALIDATED;
+
+import android.net.Network;
+import android.net.NetworkCapabilities;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Immutable state of the networks the {@link NetworkMonitor} knows about: for each one its
+ * transports and whether it is validated or behind a captive portal, plus which one is the
+ * default network. Changes produce a new snapshot; unchanged state keeps the same instance.
+ */
+public final class NetworkSnapshot {
+
+    static final NetworkSnapshot EMPTY = new NetworkSnapshot(new Link[0], null);
+
+    private static final class Link {
+        final Network mNetwork;
+        // Bit n is set for transport n, see NetworkCapabilities.TRANSPORT_*
+        final int mTransports;
+        final boolean mValidated;
+        final boolean mCaptivePortal;
+
+        Link(Network network, NetworkCapabilities capabilities) {
+            mNetwork = network;
+            int transports = 0;
+            for (int transport : capabilities.getTransportTypes()) {
+                transports |= 1 << transport;
+            }
+            mTransports = transports;
+            mValidated = capabilities.hasCapability(NET_CAPABILITY_VALIDATED);
+            mCaptivePortal = capabilities.hasCapability(NET_CAPABILITY_CAPTIVE_PORTAL);
+        }
+
+        boolean sameState(Link other) {
+            return mTransports == other.mTransports && mValidated == other.mValidated
+                    && mCaptivePortal == other.mCaptivePortal;
+        }
+
+        @Override
+        public String toString() {
+            return mNetwork + "{transports=0x" + Integer.toHexString(mTransports)
+                    + ", validated=" + mValidated + ", captivePortal=" + mCaptivePortal + '}';
+        }
+    }
+
+    private final Link[] mLinks;
+    private final Network mDefaultNetwork;
+
+    private NetworkSnapshot(Link[] links, Network defaultNetwork) {
+        mLinks = links;
+        mDefaultNetwork = defaultNetwork;
+    }
+
+    NetworkSnapshot withNetwork(Network network, NetworkCapabilities capabilities) {
+        final Link link = new Link(network, capabilities);
+        final int index = indexOf(network);
+        if (index >= 0) {
+            if (mLinks[index].sameState(link)) {
+                return this;
+            }
+            Link[] links = mLinks.clone();
+            links[index] = link;
+            return new NetworkSnapshot(links, mDefaultNetwork);
+        }
+        Link[] links = Arrays.copyOf(mLinks, mLinks.length + 1);
+        links[mLinks.length] = link;
+        return new NetworkSnapshot(links, mDefaultNetwork);
+    }
+
+    NetworkSnapshot withoutNetwork(Network network) {
+        final int index = indexOf(network);
+        final Network defaultNetwork = network.equals(mDefaultNetwork) ? null : mDefaultNetwork;
+        if (index < 0) {
+            return defaultNetwork == mDefaultNetwork ? this
+                    : new NetworkSnapshot(mLinks, defaultNetwork);
+        }
+        Link[] links = new Link[mLinks.length - 1];
+        System.arraycopy(mLinks, 0, links, 0, index);
+        System.arraycopy(mLinks, index + 1, links, index, links.length - index);
+        return new NetworkSnapshot(links, defaultNetwork);
+    }
+
+    NetworkSnapshot withDefaultNetwork(Network network) {
+        return Objects.equals(network, mDefaultNetwork) ? this
+                : new NetworkSnapshot(mLinks, network);
+    }
+
+    private int indexOf(Network network) {
+        for (int i = 0; i < mLinks.length; i++) {
+            if (mLinks[i].mNetwork.equals(network)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Link getLink(Network network) {
+        final int index = network != null ? indexOf(network) : -1;
+        return index >= 0 ? mLinks[index] : null;
+    }
+
+    /**
+     * @return the network apps use by default, or null if there is none
+     */
+    public Network getDefaultNetwork() {
+        return mDefaultNetwork;
+    }
+
+    public boolean isConnected() {
+        return mDefaultNetwork != null;
+    }
+
+    /**
+     * @return whether the default network uses the transport, one of
+     *         NetworkCapabilities.TRANSPORT_*
+     */
+    public boolean isDefaultNetworkTransport(int transport) {
+        final Link link = getLink(mDefaultNetwork);
+        return link != null && (link.mTransports & (1 << transport)) != 0;
+    }
+
+    public boolean isWifiConnected() {
+        return isDefaultNetworkTransport(NetworkCapabilities.TRANSPORT_WIFI);
+    }
+
+    /**
+     * @return whether any network uses the transport, one of NetworkCapabilities.TRANSPORT_*
+     */
+    public boolean hasTransport(int transport) {
+        for (Link link : mLinks) {
+            if ((link.mTransports & (1 << transport)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isValidated(Network network) {
+        final Link link = getLink(network);
+        return link != null && link.mValidated;
+    }
+
+    public boolean isCaptivePortal(Network network) {
+        final Link link = getLink(network);
+        return link != null && link.mCaptivePortal;
+    }
+
+    /**
+     * @return whether the default network has been validated to reach the internet
+     */
+    public boolean isValidated() {
+        return isValidated(mDefaultNetwork);
+    }
+
+    /**
+     * @return a network the platform found to be behind a captive portal, or null
+     */
+    public Network getCaptivePortalNetwork() {
+        for (Link link : mLinks) {
+            if (link.mCaptivePortal) {
+                return link.mNetwork;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkSnapshot{default=" + mDefaultNetwork + ", networks="
+                + Arrays.toString(mLinks) + '}';
+    }
+}
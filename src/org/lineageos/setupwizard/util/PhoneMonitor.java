@@ -41,9 +41,6 @@ import static android.telephony.TelephonyManager.SIM_STATE_PUK_REQUIRED;
 import static android.telephony.TelephonyManager.SIM_STATE_READY;
 import static android.telephony.TelephonyManager.SIM_STATE_UNKNOWN;
 
-import static com.android.internal.telephony.PhoneConstants.LTE_ON_CDMA_TRUE;
-import static com.android.internal.telephony.PhoneConstants.LTE_ON_CDMA_UNKNOWN;
-
 import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
 
 import android.content.BroadcastReceiver;
@@ -52,8 +49,10 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Handler;
 import android.os.HandlerExecutor;
+import android.os.HandlerThread;
 import android.os.Looper;
-import android.sysprop.TelephonyProperties;
+import android.os.Process;
+import android.os.SystemClock;
 import android.telephony.PhoneStateListener;
 import android.telephony.ServiceState;
 import android.telephony.SignalStrength;
@@ -63,25 +62,110 @@ import android.telephony.SubscriptionManager.OnSubscriptionsChangedListener;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.Choreographer;
 
 import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.TelephonyIntents;
 
-import java.util.ArrayList;
+import org.lineageos.setupwizard.R;
+
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
+/**
+ * Tracks the SIMs, subscriptions and their service state.
+ *
+ * <p>The monitor is created on first use and only exists on devices with telephony. Queries
+ * work right away; the subscription listeners, a {@link PhoneStateListener} per subscription
+ * and the broadcast receiver are only registered once the monitor is started, either by the
+ * first listener or by {@link #prewarm(Context)}. When setup finishes, all of them are
+ * unregistered again and the event thread quits.
+ *
+ * <p>Phone state callbacks arrive on a dedicated event thread, where they are folded into
+ * the latest state per subscription. The listeners get that state on the main thread, at most
+ * once per frame, so bursts of signal strength updates from several SIMs cost one dispatch.
+ * While no frames are drawn, as with the display off, a short delay stands in for the frame.
+ * Signal strengths are reduced to bar levels first, see {@link SignalLevelFilter}; listeners
+ * only hear about a subscription's level when it changes, at most once per configured window.
+ * Subscription, SIM and default data changes are delivered on the main thread as they come.
+ *
+ * <p>Subscription and SIM queries are answered from a {@link SubscriptionSnapshot}, rebuilt on
+ * the event thread when the subscriptions or a SIM state change.
+ *
+ * <p>The monitor also owns radio readiness: {@link #getRadioReady()} completes once any
+ * subscription reports a service state other than {@link ServiceState#STATE_POWER_OFF}, or
+ * once the configured deadline passed. How long that took is logged for tuning the deadline.
+ */
 public class PhoneMonitor {
 
     public static final String TAG = PhoneMonitor.class.getSimpleName();
 
+    public static final int SIGNAL_LEVEL_UNKNOWN = SignalLevelFilter.NO_LEVEL;
+
+    // Events a SubscriptionStateListener can register for
+    public static final int EVENT_SERVICE_STATE = 1;
+    public static final int EVENT_DATA_CONNECTION_STATE = 1 << 1;
+    public static final int EVENT_DEFAULT_DATA_SUBSCRIPTION_CHANGED = 1 << 2;
+    public static final int EVENT_DEFAULT_DATA_SUBSCRIPTION_CHANGE_REQUESTED = 1 << 3;
+    public static final int EVENT_SIGNAL_LEVEL = 1 << 4;
+    public static final int EVENT_SIM_STATE = 1 << 5;
+    public static final int EVENT_ALL = (1 << 6) - 1;
+
     private static PhoneMonitor sInstance;
     private final Context mContext;
     private final TelephonyManager mTelephony;
-    private SubscriptionManager mSubscriptionManager;
-    private final ArrayList<SubscriptionStateListener> mListeners = new ArrayList<>();
+    private final SubscriptionManager mSubscriptionManager;
+    private boolean mStarted;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final CompletableFuture<Boolean> mRadioReady = new CompletableFuture<>();
+    private final Runnable mRadioReadyTimeoutRunnable = () -> onRadioReady(false);
+    private long mStartTime;
+    // Copy on write: replaced as a whole under the monitor's lock, iterated without locking
+    private volatile Registration[] mRegistrations = new Registration[0];
+    // Event thread only
     private final SparseArray<SubscriptionStateTracker> mTrackers = new SparseArray<>();
+    private volatile SubscriptionSnapshot mSnapshot;
+    // Numbers snapshot builds in the order they started, guarded by the monitor's lock
+    private int mSnapshotGeneration;
+    private int mPublishedGeneration;
+
+    // Recent levels averaged per subscription
+    private static final int SIGNAL_LEVEL_HISTORY = 4;
+
+    private HandlerThread mEventThread;
+    // The thread of the last stop(), which may still be tearing down
+    private HandlerThread mStoppedEventThread;
+    private Handler mEventHandler;
+    private HandlerExecutor mEventExecutor;
+
+    // Longer than any frame, so it only dispatches when no frames are drawn, display off
+    private static final long DISPATCH_FALLBACK_DELAY_MS = 100;
+
+    // Guards mPendingStates, the swapping of mDispatchStates and mDispatchScheduled
+    private final Object mPendingLock = new Object();
+    // Filled on the event thread. Each dispatch swaps it with mDispatchStates, so neither is
+    // ever copied. States are kept and reused per subscription, those without changes are
+    // skipped.
+    private SparseArray<PendingState> mPendingStates = new SparseArray<>();
+    // Main thread only, apart from the swap
+    private SparseArray<PendingState> mDispatchStates = new SparseArray<>();
+    private boolean mDispatchScheduled;
+
+    // Last dispatched level per subscription, main thread only
+    private final SparseIntArray mSignalLevels = new SparseIntArray();
+
+    private final Choreographer.FrameCallback mDispatchFrameCallback =
+            frameTimeNanos -> dispatchPendingStates();
+    private final Runnable mDispatchFallbackRunnable = this::dispatchPendingStates;
+    private final Runnable mScheduleDispatchRunnable = () -> {
+        Choreographer.getInstance().postFrameCallback(mDispatchFrameCallback);
+        // Choreographer does not call back while the display is off
+        mMainHandler.postDelayed(mDispatchFallbackRunnable, DISPATCH_FALLBACK_DELAY_MS);
+    };
 
     private int mChangingToDataSubId = -1;
 
@@ -90,22 +174,74 @@ public class PhoneMonitor {
         public void onReceive(Context context, Intent intent) {
             if (intent.getAction().equals(TelephonyIntents.ACTION_SIM_STATE_CHANGED)) {
                 final int sub = intent.getIntExtra(PhoneConstants.SUBSCRIPTION_KEY, -1);
-                final int state = mTelephony.getSimState(sub);
-                simStateChanged(sub, state);
+                // Runs on the event thread, see start()
+                final SubscriptionSnapshot snapshot = rebuildSnapshot();
+                // SIM states are per slot; a removed SIM has no subscription left to map
+                final SubscriptionInfo info = snapshot.getSubscription(sub);
+                final int slot = info != null ? info.getSimSlotIndex()
+                        : intent.getIntExtra(PhoneConstants.SLOT_KEY,
+                                SubscriptionManager.INVALID_SIM_SLOT_INDEX);
+                final int state = snapshot.getSimState(slot);
+                mMainHandler.post(() -> simStateChanged(sub, state));
             } else if (intent.getAction()
                     .equals(TelephonyIntents.ACTION_DEFAULT_DATA_SUBSCRIPTION_CHANGED)) {
-                ddsHasChanged(intent.getIntExtra(PhoneConstants.SUBSCRIPTION_KEY, -1));
+                final int sub = intent.getIntExtra(PhoneConstants.SUBSCRIPTION_KEY, -1);
+                mMainHandler.post(() -> ddsHasChanged(sub));
             }
         }
     };
 
+    private static final class Registration {
+        final SubscriptionStateListener mListener;
+        // Null to be called directly on the main thread
+        final Executor mExecutor;
+        final int mEvents;
+
+        Registration(SubscriptionStateListener listener, Executor executor, int events) {
+            mListener = listener;
+            mExecutor = executor;
+            mEvents = events;
+        }
+    }
+
+    /**
+     * State of a subscription that changed since the last dispatch; only the latest value of
+     * each kind is kept.
+     */
+    private static class PendingState {
+        static final int SERVICE_STATE = 1;
+        static final int DATA_CONNECTION_STATE = 1 << 1;
+        static final int SIGNAL_LEVEL = 1 << 2;
+
+        int mChanged;
+        ServiceState mServiceState;
+        int mDataState;
+        int mNetworkType;
+        int mSignalLevel;
+
+        void clear() {
+            mChanged = 0;
+            mServiceState = null;
+        }
+    }
+
+    /**
+     * Receives the phone state of one subscription, on the event thread.
+     */
     private class SubscriptionStateTracker extends PhoneStateListener {
 
         private ServiceState mServiceState;
         private int mSubId = -1;
 
+        private final SignalLevelFilter mSignalLevels = new SignalLevelFilter(
+                SIGNAL_LEVEL_HISTORY,
+                mContext.getResources().getInteger(R.integer.signal_level_window));
+        private final Runnable mReportSignalLevelRunnable = this::reportSignalLevel;
+        // The event thread the tracker was created for, which outlives a stop of the monitor
+        private final Handler mHandler = mEventHandler;
+
         public SubscriptionStateTracker(int subId) {
-            super(new HandlerExecutor(new Handler(Looper.myLooper())));
+            super(mEventExecutor);
             mSubId = subId;
         }
 
@@ -114,118 +250,431 @@ public class PhoneMonitor {
             if (LOGV) {
                 logPhoneState("onServiceStateChanged state=\"" + serviceState + "\" ");
             }
-            for (SubscriptionStateListener listener : mListeners) {
-                listener.onServiceStateChanged(mSubId, serviceState);
+            synchronized (mPendingLock) {
+                PendingState state = getPendingStateLocked(mSubId);
+                state.mServiceState = serviceState;
+                state.mChanged |= PendingState.SERVICE_STATE;
             }
         }
 
         public void onDataConnectionStateChanged(int state, int networkType) {
-            for (SubscriptionStateListener listener : mListeners) {
-                listener.onDataConnectionStateChanged(mSubId, state, networkType);
+            synchronized (mPendingLock) {
+                PendingState pendingState = getPendingStateLocked(mSubId);
+                pendingState.mDataState = state;
+                pendingState.mNetworkType = networkType;
+                pendingState.mChanged |= PendingState.DATA_CONNECTION_STATE;
             }
         }
 
         public void onSignalStrengthsChanged(SignalStrength signalStrength) {
-            for (SubscriptionStateListener listener : mListeners) {
-                listener.onSignalStrengthsChanged(mSubId, signalStrength);
+            mSignalLevels.add(signalStrength.getLevel());
+            if (mHandler.hasCallbacks(mReportSignalLevelRunnable)) {
+                // Coalesced into the report that is already scheduled
+                return;
+            }
+            final long delay = mSignalLevels.getDelay(SystemClock.elapsedRealtime());
+            if (delay > 0) {
+                mHandler.postDelayed(mReportSignalLevelRunnable, delay);
+            } else {
+                reportSignalLevel();
+            }
+        }
+
+        private void reportSignalLevel() {
+            final int level = mSignalLevels.report(SystemClock.elapsedRealtime());
+            if (level == SignalLevelFilter.NO_LEVEL) {
+                return;
+            }
+            synchronized (mPendingLock) {
+                PendingState state = getPendingStateLocked(mSubId);
+                state.mSignalLevel = level;
+                state.mChanged |= PendingState.SIGNAL_LEVEL;
             }
         }
     }
 
     private final OnSubscriptionsChangedListener mOnSubscriptionsChangedListener =
-            new OnSubscriptionsChangedListener() {
+            new OnSubscriptionsChangedListener(Looper.getMainLooper()) {
                 public void onSubscriptionsChanged() {
                     if (LOGV) {
                         Log.d(TAG, "Subscriptions changed");
                     }
                     super.onSubscriptionsChanged();
+                    rebuildSnapshot();
                     updatePhoneStateTrackers();
                 }
             };
 
-    public static void initInstance(Context context) {
-        if (sInstance == null) {
+    /**
+     * @return the monitor, created on first use, or null if the device has no telephony
+     */
+    public static synchronized PhoneMonitor getInstance(Context context) {
+        if (sInstance == null && DeviceCapabilities.get(context).hasTelephony()) {
             sInstance = new PhoneMonitor(context.getApplicationContext());
         }
+        return sInstance;
     }
 
-    public static void onSetupFinished() {
-        if (sInstance != null) {
-            sInstance.mContext.unregisterReceiver(sInstance.mIntentReceiver);
+    /**
+     * Creates and starts the monitor ahead of the pages that need it. Safe to call from any
+     * thread.
+     */
+    public static void prewarm(Context context) {
+        final PhoneMonitor phoneMonitor = getInstance(context);
+        if (phoneMonitor != null) {
+            phoneMonitor.start();
         }
     }
 
-    public static PhoneMonitor getInstance() {
-        return sInstance;
+    public static synchronized void onSetupFinished() {
+        if (sInstance != null) {
+            sInstance.stop();
+        }
     }
 
-    public PhoneMonitor(Context context) {
+    private PhoneMonitor(Context context) {
         mContext = context;
+        mTelephony = mContext.getSystemService(TelephonyManager.class);
+        mSubscriptionManager = SubscriptionManager.from(mContext);
+    }
+
+    private synchronized void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
         if (LOGV) {
             Log.v(TAG, "Starting PhoneMonitor");
         }
-        mTelephony = mContext.getSystemService(TelephonyManager.class);
-        if (mTelephony != null) {
-            mSubscriptionManager = SubscriptionManager.from(mContext);
-            mSubscriptionManager.addOnSubscriptionsChangedListener(mOnSubscriptionsChangedListener);
-            updatePhoneStateTrackers();
+        final long now = SystemClock.elapsedRealtime();
+        if (mStartTime == 0) {
+            mStartTime = now;
+        }
+        if (!mRadioReady.isDone()) {
+            // Only what is left of the deadline when started again
+            final long deadline = mStartTime
+                    + mContext.getResources().getInteger(R.integer.radio_ready_timeout);
+            mMainHandler.postDelayed(mRadioReadyTimeoutRunnable, Math.max(0, deadline - now));
         }
+        if (mEventThread == null) {
+            mEventThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            mEventThread.start();
+            mEventHandler = new Handler(mEventThread.getLooper());
+            mEventExecutor = new HandlerExecutor(mEventHandler);
+            final HandlerThread previous = mStoppedEventThread;
+            mStoppedEventThread = null;
+            if (previous != null) {
+                // Let the last stop() finish with the trackers before this thread takes them
+                mEventHandler.post(() -> joinQuietly(previous));
+            }
+        }
+        // Anything may have changed while the monitor was not listening. Snapshots are
+        // rebuilt on the event thread, off the main thread.
+        mEventHandler.post(() -> {
+            rebuildSnapshot();
+            updatePhoneStateTrackers();
+        });
+        mSubscriptionManager.addOnSubscriptionsChangedListener(mEventExecutor,
+                mOnSubscriptionsChangedListener);
         // Register for DDS changes
         IntentFilter filter = new IntentFilter();
         filter.addAction(TelephonyIntents.ACTION_DEFAULT_DATA_SUBSCRIPTION_CHANGED);
         filter.addAction(TelephonyIntents.ACTION_SIM_STATE_CHANGED);
-        context.registerReceiver(mIntentReceiver, filter, null, null);
+        mContext.registerReceiver(mIntentReceiver, filter, null, mEventHandler);
+    }
+
+    /**
+     * Undoes {@link #start()}: unregisters everything it registered and quits the event
+     * thread. Queries keep working from the last snapshot.
+     */
+    private synchronized void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        if (LOGV) {
+            Log.v(TAG, "Stopping PhoneMonitor");
+        }
+        mMainHandler.removeCallbacks(mRadioReadyTimeoutRunnable);
+        mContext.unregisterReceiver(mIntentReceiver);
+        mSubscriptionManager.removeOnSubscriptionsChangedListener(
+                mOnSubscriptionsChangedListener);
+        mEventHandler.post(this::removePhoneStateTrackers);
+        mEventThread.quitSafely();
+        mStoppedEventThread = mEventThread;
+        mEventThread = null;
+        synchronized (mPendingLock) {
+            for (int i = 0; i < mPendingStates.size(); i++) {
+                mPendingStates.valueAt(i).clear();
+            }
+        }
+    }
+
+    private static void joinQuietly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
+    private PendingState getPendingStateLocked(int subId) {
+        PendingState state = mPendingStates.get(subId);
+        if (state == null) {
+            state = new PendingState();
+            mPendingStates.put(subId, state);
+        }
+        if (!mDispatchScheduled) {
+            mDispatchScheduled = true;
+            // The main thread's Choreographer can only be reached from the main thread
+            mMainHandler.post(mScheduleDispatchRunnable);
+        }
+        return state;
+    }
+
+    private void dispatchPendingStates() {
+        // Whichever of the frame callback and the fallback comes first dispatches
+        Choreographer.getInstance().removeFrameCallback(mDispatchFrameCallback);
+        mMainHandler.removeCallbacks(mDispatchFallbackRunnable);
+        final SparseArray<PendingState> states;
+        synchronized (mPendingLock) {
+            states = mPendingStates;
+            mPendingStates = mDispatchStates;
+            mDispatchStates = states;
+            mDispatchScheduled = false;
+        }
+        for (int i = 0; i < states.size(); i++) {
+            final int subId = states.keyAt(i);
+            final PendingState state = states.valueAt(i);
+            if (state.mChanged == 0) {
+                continue;
+            }
+            if ((state.mChanged & PendingState.SERVICE_STATE) != 0) {
+                if (state.mServiceState.getState() != STATE_POWER_OFF) {
+                    onRadioReady(true);
+                }
+                dispatch(EVENT_SERVICE_STATE, subId, 0, 0, state.mServiceState);
+            }
+            if ((state.mChanged & PendingState.DATA_CONNECTION_STATE) != 0) {
+                dispatch(EVENT_DATA_CONNECTION_STATE, subId, state.mDataState,
+                        state.mNetworkType, null);
+            }
+            if ((state.mChanged & PendingState.SIGNAL_LEVEL) != 0) {
+                mSignalLevels.put(subId, state.mSignalLevel);
+                dispatch(EVENT_SIGNAL_LEVEL, subId, state.mSignalLevel, 0, null);
+            }
+            state.clear();
+        }
+    }
+
+    /**
+     * @return the current snapshot, built on first use when the monitor is not started yet
+     */
+    private SubscriptionSnapshot getSnapshot() {
+        final SubscriptionSnapshot snapshot = mSnapshot;
+        return snapshot != null ? snapshot : rebuildSnapshot();
+    }
+
+    /**
+     * Reads a new snapshot without holding the monitor's lock, which main thread callers take,
+     * and publishes it unless a build that started later already did.
+     *
+     * @return the published snapshot
+     */
+    private SubscriptionSnapshot rebuildSnapshot() {
+        final int generation;
+        final SubscriptionSnapshot previous;
+        synchronized (this) {
+            generation = ++mSnapshotGeneration;
+            previous = mSnapshot;
+        }
+        final SubscriptionSnapshot snapshot =
+                SubscriptionSnapshot.build(mTelephony, mSubscriptionManager, previous);
+        synchronized (this) {
+            // A build that started later read newer state
+            if (generation > mPublishedGeneration) {
+                mPublishedGeneration = generation;
+                mSnapshot = snapshot;
+            }
+            return mSnapshot;
+        }
+    }
+
+    /**
+     * Registers a tracker for each new subscription and drops those of subscriptions that
+     * went away. Event thread only.
+     */
     private void updatePhoneStateTrackers() {
-        int i = 0;
-        int[] subIds = mSubscriptionManager.getActiveSubscriptionIdList();
-        HashSet<Integer> subIdSet = new HashSet(Arrays.asList(subIds));
+        final SubscriptionSnapshot snapshot = getSnapshot();
+        final List<SubscriptionInfo> subs = snapshot.getSubscriptions();
         if (LOGV) {
-            Log.v(TAG, "Register PhoneStateListeners for " + subIdSet);
+            Log.v(TAG, "Register PhoneStateListeners for " + subs.size() + " subscriptions");
         }
-        for (int i2 = 0; i2 < mTrackers.size(); i2++) {
-            if (!subIdSet.contains(Integer.valueOf(mTrackers.keyAt(i2)))) {
-                mTelephony.listen(mTrackers.valueAt(i2), LISTEN_NONE);
-                mTrackers.removeAt(i2);
+        for (int i = mTrackers.size() - 1; i >= 0; i--) {
+            if (snapshot.getSubscription(mTrackers.keyAt(i)) == null) {
+                mTelephony.listen(mTrackers.valueAt(i), LISTEN_NONE);
+                mTrackers.removeAt(i);
             }
         }
-        int length = subIds.length;
-        while (i < length) {
-            int subId = subIds[i];
+        for (SubscriptionInfo sub : subs) {
+            final int subId = sub.getSubscriptionId();
             if (mTrackers.indexOfKey(subId) < 0) {
                 SubscriptionStateTracker tracker = new SubscriptionStateTracker(subId);
                 mTrackers.put(subId, tracker);
-                mTelephony.createForSubscriptionId(subId).listen(tracker, LISTEN_SERVICE_STATE
+                snapshot.getTelephonyManager(subId).listen(tracker, LISTEN_SERVICE_STATE
                         | LISTEN_SIGNAL_STRENGTHS
                         | LISTEN_DATA_CONNECTION_STATE);
             }
-            i++;
         }
     }
 
+    /**
+     * Stops listening on all trackers. Event thread only.
+     */
+    private void removePhoneStateTrackers() {
+        for (int i = 0; i < mTrackers.size(); i++) {
+            mTelephony.listen(mTrackers.valueAt(i), LISTEN_NONE);
+        }
+        mTrackers.clear();
+    }
+
+    /**
+     * Starts the monitor if needed. The future completes on the main thread, with true once a
+     * radio is powered on, or with false if the deadline passed first.
+     */
+    public CompletableFuture<Boolean> getRadioReady() {
+        start();
+        return mRadioReady;
+    }
+
+    private void onRadioReady(boolean ready) {
+        if (mRadioReady.isDone()) {
+            return;
+        }
+        mMainHandler.removeCallbacks(mRadioReadyTimeoutRunnable);
+        final long now = SystemClock.elapsedRealtime();
+        Log.i(TAG, "Radio " + (ready ? "ready" : "deadline passed") + " after "
+                + (now - mStartTime) + "ms, " + (now - Process.getStartElapsedRealtime())
+                + "ms since process start");
+        mRadioReady.complete(ready);
+    }
+
+    /**
+     * @return the signal level last delivered to the listeners, or
+     *         {@link #SIGNAL_LEVEL_UNKNOWN}. Only call from the main thread.
+     */
+    public int getSignalLevel(int subId) {
+        return mSignalLevels.get(subId, SIGNAL_LEVEL_UNKNOWN);
+    }
+
+    /**
+     * Registers a listener for all events, called on the main thread.
+     */
     public void addListener(SubscriptionStateListener listener) {
-        mListeners.add(listener);
+        addListener(listener, null, EVENT_ALL);
+    }
+
+    /**
+     * Registers a listener for the given events only.
+     *
+     * @param executor the executor to call the listener on, or null to call it directly on
+     *                 the main thread
+     * @param events   a combination of the EVENT_ flags
+     */
+    public void addListener(SubscriptionStateListener listener, Executor executor,
+            int events) {
+        start();
+        synchronized (this) {
+            final int length = mRegistrations.length;
+            Registration[] registrations = Arrays.copyOf(mRegistrations, length + 1);
+            registrations[length] = new Registration(listener, executor, events);
+            mRegistrations = registrations;
+        }
+    }
+
+    public synchronized void removeListener(SubscriptionStateListener listener) {
+        final Registration[] registrations = mRegistrations;
+        for (int i = 0; i < registrations.length; i++) {
+            if (registrations[i].mListener == listener) {
+                Registration[] remaining = new Registration[registrations.length - 1];
+                System.arraycopy(registrations, 0, remaining, 0, i);
+                System.arraycopy(registrations, i + 1, remaining, i, remaining.length - i);
+                mRegistrations = remaining;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Delivers an event to every listener registered for it. Listeners without an executor
+     * are called right away, without allocating; listeners added or removed meanwhile do not
+     * affect a dispatch that already started.
+     */
+    private void dispatch(int event, int subId, int arg1, int arg2, Object obj) {
+        for (Registration registration : mRegistrations) {
+            if ((registration.mEvents & event) == 0) {
+                continue;
+            }
+            final SubscriptionStateListener listener = registration.mListener;
+            if (registration.mExecutor == null) {
+                deliver(listener, event, subId, arg1, arg2, obj);
+            } else {
+                registration.mExecutor.execute(
+                        () -> deliver(listener, event, subId, arg1, arg2, obj));
+            }
+        }
     }
 
-    public void removeListener(SubscriptionStateListener listener) {
-        mListeners.remove(listener);
+    private static void deliver(SubscriptionStateListener listener, int event, int subId,
+            int arg1, int arg2, Object obj) {
+        switch (event) {
+            case EVENT_SERVICE_STATE:
+                listener.onServiceStateChanged(subId, (ServiceState) obj);
+                break;
+            case EVENT_DATA_CONNECTION_STATE:
+                listener.onDataConnectionStateChanged(subId, arg1, arg2);
+                break;
+            case EVENT_DEFAULT_DATA_SUBSCRIPTION_CHANGED:
+                listener.onDefaultDataSubscriptionChanged(subId);
+                break;
+            case EVENT_DEFAULT_DATA_SUBSCRIPTION_CHANGE_REQUESTED:
+                listener.onDefaultDataSubscriptionChangeRequested(subId, arg1);
+                break;
+            case EVENT_SIGNAL_LEVEL:
+                listener.onSignalLevelChanged(subId, arg1);
+                break;
+            case EVENT_SIM_STATE:
+                listener.onSimStateChanged(subId, arg1);
+                break;
+        }
     }
 
     public SubscriptionInfo getActiveSubscriptionInfo(int subId) {
-        return mSubscriptionManager.getActiveSubscriptionInfo(subId);
+        return getSnapshot().getSubscription(subId);
     }
 
+    /**
+     * @return the active subscriptions, never null and not modifiable
+     */
     public List<SubscriptionInfo> getActiveSubscriptionInfoList() {
-        return mSubscriptionManager.getActiveSubscriptionInfoList();
+        return getSnapshot().getSubscriptions();
     }
 
     public String getSimOperatorName(int subId) {
-        return mTelephony.createForSubscriptionId(subId).getSimOperatorName();
+        return getSnapshot().getSimOperatorName(subId);
     }
 
     public String getNetworkOperatorName(int subId) {
-        return mTelephony.createForSubscriptionId(subId).getNetworkOperatorName();
+        // Follows network registration rather than the SIM, so it is not part of the snapshot
+        final TelephonyManager telephony = getSnapshot().getTelephonyManager(subId);
+        return telephony != null ? telephony.getNetworkOperatorName() : null;
     }
 
     public ServiceState getServiceStateForSubscriber(int subId) {
@@ -241,19 +690,15 @@ public class PhoneMonitor {
         }
         if (mChangingToDataSubId != subId) {
             mSubscriptionManager.setDefaultDataSubId(subId);
-            for (SubscriptionStateListener subscriptionStateListener : mListeners) {
-                subscriptionStateListener
-                        .onDefaultDataSubscriptionChangeRequested(mChangingToDataSubId, subId);
-            }
+            dispatch(EVENT_DEFAULT_DATA_SUBSCRIPTION_CHANGE_REQUESTED, mChangingToDataSubId,
+                    subId, 0, null);
             mChangingToDataSubId = subId;
         }
     }
 
     private void ddsHasChanged(int subId) {
         if (subId > -1) {
-            for (SubscriptionStateListener subscriptionStateListener : mListeners) {
-                subscriptionStateListener.onDefaultDataSubscriptionChanged(subId);
-            }
+            dispatch(EVENT_DEFAULT_DATA_SUBSCRIPTION_CHANGED, subId, 0, 0, null);
         }
     }
 
@@ -262,69 +707,54 @@ public class PhoneMonitor {
             Log.v(TAG,
                     "simStateChanged(" + subId + ", " + simState + ")");
         }
-        for (SubscriptionStateListener subscriptionStateListener : mListeners) {
-            subscriptionStateListener.onSimStateChanged(subId, simState);
-        }
+        dispatch(EVENT_SIM_STATE, subId, simState, 0, null);
     }
 
     public boolean simMissing() {
-        if (mTelephony == null) {
-            return false;
-        }
-        List<SubscriptionInfo> subs = mSubscriptionManager.getActiveSubscriptionInfoList();
-        if (subs != null) {
-            for (SubscriptionInfo sub : subs) {
-                int simState = mTelephony.getSimState(sub.getSimSlotIndex());
-                if (LOGV) {
-                    Log.v(TAG, "getSimState(" + sub.getSubscriptionId() + ") == " + simState);
-                }
-                int subId = sub.getSubscriptionId();
-                boolean isGsm = isGSM(subId);
-                boolean isLte = isLte(subId);
-                if ((isGsm || isLte) && simState != 1) {
-                    return false;
-                }
+        final SubscriptionSnapshot snapshot = getSnapshot();
+        for (SubscriptionInfo sub : snapshot.getSubscriptions()) {
+            int simState = snapshot.getSimState(sub.getSimSlotIndex());
+            if (LOGV) {
+                Log.v(TAG, "getSimState(" + sub.getSubscriptionId() + ") == " + simState);
+            }
+            int subId = sub.getSubscriptionId();
+            boolean isGsm = snapshot.isGsm(subId);
+            boolean isLte = snapshot.isLte(subId);
+            if ((isGsm || isLte) && simState != SIM_STATE_ABSENT) {
+                return false;
             }
         }
         return true;
     }
 
     public boolean singleSimInserted() {
-        return mSubscriptionManager.getActiveSubscriptionInfoCount() == 1;
+        return getSnapshot().getSubscriptions().size() == 1;
     }
 
     // We only care that each slot has a sim
     public boolean allSimsInserted() {
-        int simSlotCount = mTelephony.getSimCount();
-        for (int i = 0; i < simSlotCount; i++) {
-            int state = mTelephony.getSimState(i);
-            if (state == TelephonyManager.SIM_STATE_ABSENT) {
-                return false;
-            }
-        }
-        return simSlotCount == mSubscriptionManager.getActiveSubscriptionInfoCount();
+        final SubscriptionSnapshot snapshot = getSnapshot();
+        return !snapshot.hasAbsentSim()
+                && snapshot.getSimCount() == snapshot.getSubscriptions().size();
     }
 
     public boolean isMultiSimDevice() {
-        return mTelephony.isMultiSimEnabled();
+        return getSnapshot().isMultiSim();
     }
 
     public boolean isGSM(int subId) {
-        return mTelephony.createForSubscriptionId(subId).getCurrentPhoneType() == PHONE_TYPE_GSM;
+        return getSnapshot().isGsm(subId);
     }
 
     public boolean isLte(int subId) {
-        return getLteOnCdmaMode(subId) == LTE_ON_CDMA_TRUE;
+        return getSnapshot().isLte(subId);
     }
 
     public int getLteOnCdmaMode(int subId) {
-        if (mTelephony == null || mTelephony.createForSubscriptionId(subId).getLteOnCdmaMode(subId)
-                == LTE_ON_CDMA_UNKNOWN) {
-            return TelephonyProperties.lte_on_cdma_device().orElse(LTE_ON_CDMA_UNKNOWN);
-        }
-        return mTelephony.createForSubscriptionId(subId).getLteOnCdmaMode(subId);
+        return getSnapshot().getLteOnCdmaMode(subId);
     }
 
+    // Event thread only, as it reads the trackers
     private void logPhoneState(String prefix) {
         if (LOGV) {
             Log.v(TAG, prefix + getPhoneState());
@@ -368,12 +798,12 @@ public class PhoneMonitor {
     }
 
     private String getSubscriptionSimStateName(int subId) {
-        SubscriptionInfo subInfo = mSubscriptionManager.getActiveSubscriptionInfo(subId);
+        final SubscriptionSnapshot snapshot = getSnapshot();
+        SubscriptionInfo subInfo = snapshot.getSubscription(subId);
         if (subInfo == null) {
             return "SIM_STATE_UNKNOWN";
         }
-        return mTelephony != null ?
-                getSimStateName(mTelephony.getSimState(subInfo.getSimSlotIndex())) : "";
+        return getSimStateName(snapshot.getSimState(subInfo.getSimSlotIndex()));
     }
 
     private String getDataStateName() {
@@ -474,8 +904,8 @@ public class PhoneMonitor {
 
     private String getPhoneState() {
         StringBuilder states = new StringBuilder();
-        for (int subId : mSubscriptionManager.getActiveSubscriptionIdList()) {
-            states.append(" ").append(getPhoneState(subId));
+        for (SubscriptionInfo sub : getSnapshot().getSubscriptions()) {
+            states.append(" ").append(getPhoneState(sub.getSubscriptionId()));
         }
         return getPhoneTypeName() + " \"" + getNetworkTypeName() + "\"" + " mcc" + getMcc() +
                 "mnc" + getMnc() + " " + getDataStateName() + " " + states.toString();
@@ -487,18 +917,30 @@ public class PhoneMonitor {
                 + " Data:" + getDataServiceStateName(subId) + "  }";
     }
 
+    /**
+     * Receives the events it was registered for; the others have empty defaults.
+     */
     public interface SubscriptionStateListener {
-        void onServiceStateChanged(int subId, ServiceState serviceState);
+        default void onServiceStateChanged(int subId, ServiceState serviceState) {
+        }
 
-        void onDataConnectionStateChanged(int subId, int state, int networkType);
+        default void onDataConnectionStateChanged(int subId, int state, int networkType) {
+        }
 
-        void onDefaultDataSubscriptionChanged(int subId);
+        default void onDefaultDataSubscriptionChanged(int subId) {
+        }
 
-        void onDefaultDataSubscriptionChangeRequested(int currentSubId, int newSubId);
+        default void onDefaultDataSubscriptionChangeRequested(int currentSubId, int newSubId) {
+        }
 
-        void onSignalStrengthsChanged(int subId, SignalStrength signalStrength);
+        /**
+         * @param level the smoothed signal bar level, from 0 to 4
+         */
+        default void onSignalLevelChanged(int subId, int level) {
+        }
 
-        void onSimStateChanged(int subId, int simState);
+        default void onSimStateChanged(int subId, int simState) {
+        }
     }
 
 }
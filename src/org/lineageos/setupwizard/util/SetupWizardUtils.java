@@ -21,7 +21,6 @@ import static android.content.Context.MODE_PRIVATE;
 import static android.content.pm.PackageManager.COMPONENT_ENABLED_STATE_DEFAULT;
 import static android.content.pm.PackageManager.COMPONENT_ENABLED_STATE_DISABLED;
 import static android.content.pm.PackageManager.COMPONENT_ENABLED_STATE_ENABLED;
-import static android.content.pm.PackageManager.DONT_KILL_APP;
 import static android.content.pm.PackageManager.GET_ACTIVITIES;
 import static android.content.pm.PackageManager.GET_RECEIVERS;
 import static android.content.pm.PackageManager.GET_SERVICES;
@@ -31,7 +30,6 @@ import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
 
 import android.app.StatusBarManager;
 import android.content.ComponentName;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -40,14 +38,9 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ServiceInfo;
 import android.content.res.Resources;
-import android.hardware.face.FaceManager;
-import android.hardware.fingerprint.FingerprintManager;
-import android.net.ConnectivityManager;
-import android.os.Binder;
 import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.provider.Settings;
-import android.telephony.ServiceState;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
 import android.util.Log;
@@ -59,10 +52,10 @@ import org.lineageos.setupwizard.MobileDataActivity;
 import org.lineageos.setupwizard.SetupWizardApp;
 import org.lineageos.setupwizard.SimMissingActivity;
 import org.lineageos.setupwizard.WifiSetupActivity;
-import org.lineageos.setupwizard.wizardmanager.WizardManager;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class SetupWizardUtils {
 
@@ -102,25 +95,11 @@ public class SetupWizardUtils {
     }
 
     public static boolean hasWifi(Context context) {
-        PackageManager packageManager = context.getPackageManager();
-        return packageManager.hasSystemFeature(PackageManager.FEATURE_WIFI);
+        return DeviceCapabilities.get(context).hasWifi();
     }
 
     public static boolean hasTelephony(Context context) {
-        PackageManager packageManager = context.getPackageManager();
-        return packageManager.hasSystemFeature(PackageManager.FEATURE_TELEPHONY);
-    }
-
-    public static boolean isRadioReady(Context context, ServiceState state) {
-        final SetupWizardApp setupWizardApp = (SetupWizardApp) context.getApplicationContext();
-        if (setupWizardApp.isRadioReady()) {
-            return true;
-        } else {
-            final boolean ready = state != null
-                    && state.getState() != ServiceState.STATE_POWER_OFF;
-            setupWizardApp.setRadioReady(ready);
-            return ready;
-        }
+        return DeviceCapabilities.get(context).hasTelephony();
     }
 
     public static boolean isOwner() {
@@ -176,96 +155,102 @@ public class SetupWizardUtils {
         }
     }
 
+    /**
+     * Marks setup complete and starts the remaining cleanup in the background.
+     *
+     * @see FinishPipeline
+     */
     public static void finishSetupWizard(Context context) {
-        ContentResolver contentResolver = context.getContentResolver();
-        Settings.Global.putInt(contentResolver,
-                Settings.Global.DEVICE_PROVISIONED, 1);
-        Settings.Secure.putInt(contentResolver,
-                Settings.Secure.USER_SETUP_COMPLETE, 1);
-        if (hasLeanback(context)) {
-            Settings.Secure.putInt(contentResolver,
-                    Settings.Secure.TV_USER_SETUP_COMPLETE, 1);
-        }
-
-        disableComponent(context, WizardManager.class);
-        disableHome(context);
-        context.sendStickyBroadcastAsUser(
-                new Intent(SetupWizardApp.ACTION_FINISHED),
-                Binder.getCallingUserHandle());
-        disableComponentSets(context, GET_RECEIVERS | GET_SERVICES);
+        FinishPipeline.run(context);
     }
 
     public static boolean isEthernetConnected(Context context) {
-        ConnectivityManager cm = (ConnectivityManager) context.
-                getSystemService(Context.CONNECTIVITY_SERVICE);
-
-        return (cm.getActiveNetworkInfo() != null &&
-                cm.getActiveNetworkInfo().getType() == ConnectivityManager.TYPE_ETHERNET);
+        return DeviceCapabilities.get(context).isEthernetConnected();
     }
 
     public static boolean hasLeanback(Context context) {
-        PackageManager packageManager = context.getPackageManager();
-        return packageManager.hasSystemFeature(PackageManager.FEATURE_LEANBACK);
+        return DeviceCapabilities.get(context).hasLeanback();
     }
 
     public static boolean hasBiometric(Context context) {
-        return hasFingerprint(context) || hasFace(context);
+        return DeviceCapabilities.get(context).hasBiometric();
     }
 
     public static boolean hasFingerprint(Context context) {
-        PackageManager packageManager = context.getPackageManager();
-        if (packageManager.hasSystemFeature(PackageManager.FEATURE_FINGERPRINT)) {
-            FingerprintManager fingerprintManager = (FingerprintManager)
-                    context.getSystemService(Context.FINGERPRINT_SERVICE);
-            return fingerprintManager.isHardwareDetected();
-        } else {
-            return false;
-        }
+        return DeviceCapabilities.get(context).hasFingerprint();
     }
 
     public static boolean hasFace(Context context) {
-        PackageManager packageManager = context.getPackageManager();
-        if (packageManager.hasSystemFeature(PackageManager.FEATURE_FACE)) {
-            FaceManager faceManager = (FaceManager)
-                    context.getSystemService(Context.FACE_SERVICE);
-            return faceManager.isHardwareDetected();
-        } else {
-            return false;
-        }
+        return DeviceCapabilities.get(context).hasFace();
     }
 
-    public static boolean simMissing() {
-        return PhoneMonitor.getInstance().simMissing();
+    public static boolean simMissing(Context context) {
+        final PhoneMonitor phoneMonitor = PhoneMonitor.getInstance(context);
+        return phoneMonitor == null || phoneMonitor.simMissing();
     }
 
-    public static boolean singleSimInserted() {
-        return PhoneMonitor.getInstance().singleSimInserted();
+    public static boolean singleSimInserted(Context context) {
+        final PhoneMonitor phoneMonitor = PhoneMonitor.getInstance(context);
+        return phoneMonitor != null && phoneMonitor.singleSimInserted();
     }
 
-    public static boolean isMultiSimDevice() {
-        return PhoneMonitor.getInstance().isMultiSimDevice();
+    public static boolean isMultiSimDevice(Context context) {
+        final PhoneMonitor phoneMonitor = PhoneMonitor.getInstance(context);
+        return phoneMonitor != null && phoneMonitor.isMultiSimDevice();
     }
 
-    public static void disableComponentsForMissingFeatures(Context context) {
-        if (!hasLeanback(context)) {
-            disableComponent(context, BluetoothSetupActivity.class);
+    /**
+     * Disables the pages of the features the device lacks once its capabilities are probed,
+     * without waiting for them. The SIM dependent pages are left to
+     * {@link #disableComponentsForSimState(Context)}.
+     *
+     * @return a future that completes once the pages are disabled, which the wizard navigator
+     *         waits for before it builds the first route
+     */
+    public static CompletableFuture<Void> disableComponentsForMissingFeatures(Context context) {
+        return DeviceCapabilities.init(context).thenAcceptAsync(
+                capabilities -> disableComponentsForMissingFeatures(context, capabilities),
+                BackgroundExecutor.get());
+    }
+
+    private static void disableComponentsForMissingFeatures(Context context,
+            DeviceCapabilities capabilities) {
+        ComponentStateApplier applier = newComponentStateApplier(context);
+        if (!capabilities.hasLeanback()) {
+            applier.disable(BluetoothSetupActivity.class);
+        }
+        if (!capabilities.hasBiometric()) {
+            applier.disable(BiometricActivity.class);
         }
-        if (!hasBiometric(context)) {
-            disableComponent(context, BiometricActivity.class);
+        if (!capabilities.hasTelephony()) {
+            applier.disable(MobileDataActivity.class);
+            applier.disable(SimMissingActivity.class);
+            applier.disable(ChooseDataSimActivity.class);
         }
-        if (!hasTelephony(context)) {
-            disableComponent(context, MobileDataActivity.class);
-            disableComponent(context, SimMissingActivity.class);
-            disableComponent(context, ChooseDataSimActivity.class);
-        } else if (!simMissing()) {
-            disableComponent(context, SimMissingActivity.class);
+        if (!capabilities.hasWifi() || capabilities.isEthernetConnected()) {
+            applier.disable(WifiSetupActivity.class);
         }
-        if (!isMultiSimDevice() || singleSimInserted()) {
-            disableComponent(context, ChooseDataSimActivity.class);
+        applier.apply();
+    }
+
+    /**
+     * Disables the SIM pages the inserted SIMs make unnecessary. This needs the phone monitor,
+     * so it runs once the monitors are prewarmed instead of during application start.
+     */
+    public static void disableComponentsForSimState(Context context) {
+        final PhoneMonitor phoneMonitor = PhoneMonitor.getInstance(context);
+        if (phoneMonitor == null) {
+            // No telephony, the pages are disabled along with the missing features
+            return;
         }
-        if (!hasWifi(context) || isEthernetConnected(context)) {
-            disableComponent(context, WifiSetupActivity.class);
+        ComponentStateApplier applier = newComponentStateApplier(context);
+        if (!phoneMonitor.simMissing()) {
+            applier.disable(SimMissingActivity.class);
         }
+        if (!phoneMonitor.isMultiSimDevice() || phoneMonitor.singleSimInserted()) {
+            applier.disable(ChooseDataSimActivity.class);
+        }
+        applier.apply();
     }
 
     public static void disableHome(Context context) {
@@ -313,17 +298,23 @@ public class SetupWizardUtils {
                 COMPONENT_ENABLED_STATE_DEFAULT);
     }
 
+    /**
+     * @return an applier that invalidates the wizard routes when it changes a component
+     */
+    public static ComponentStateApplier newComponentStateApplier(Context context) {
+        final SetupWizardApp setupWizardApp = (SetupWizardApp) context.getApplicationContext();
+        return new ComponentStateApplier(context,
+                () -> setupWizardApp.getWizardNavigator().invalidateRoutes());
+    }
+
     public static void setComponentEnabledState(Context context, ComponentName componentName,
             int enabledState) {
-        context.getPackageManager().setComponentEnabledSetting(componentName,
-                enabledState, DONT_KILL_APP);
+        newComponentStateApplier(context).setState(componentName, enabledState).apply();
     }
 
     public static void setComponentListEnabledState(Context context,
             List<ComponentName> componentNames, int enabledState) {
-        for (ComponentName componentName : componentNames) {
-            setComponentEnabledState(context, componentName, enabledState);
-        }
+        newComponentStateApplier(context).setStates(componentNames, enabledState).apply();
     }
 
     public static List<ComponentName> getComponentSets(Context context, int flags) {
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.util;
+
+/**
+ * Turns the signal bar levels of one subscription into a stream of level changes.
+ *
+ * <p>The most recent levels are kept in a small ring buffer and reported as their rounded
+ * mean, so a single outlier does not make the bars flicker. A level is only reported when it
+ * differs from the last reported one, and at most once per window. Not thread safe; the
+ * {@link PhoneMonitor} only uses it from its event thread.
+ */
+class SignalLevelFilter {
+
+    static final int NO_LEVEL = -1;
+
+    private final int[] mLevels;
+    private final long mWindowMillis;
+    private int mCount;
+    private int mNext;
+    private int mSum;
+
+    private int mReportedLevel = NO_LEVEL;
+    private long mReportedTime;
+
+    SignalLevelFilter(int historySize, long windowMillis) {
+        mLevels = new int[historySize];
+        mWindowMillis = windowMillis;
+    }
+
+    void add(int level) {
+        if (mCount == mLevels.length) {
+            mSum -= mLevels[mNext];
+        } else {
+            mCount++;
+        }
+        mLevels[mNext] = level;
+        mSum += level;
+        mNext = (mNext + 1) % mLevels.length;
+    }
+
+    /**
+     * @return the mean of the recent levels, rounded, or {@link #NO_LEVEL} if there are none
+     */
+    int getSmoothedLevel() {
+        if (mCount == 0) {
+            return NO_LEVEL;
+        }
+        return (2 * mSum + mCount) / (2 * mCount);
+    }
+
+    /**
+     * @return how long to wait before the next level may be reported, or 0 if it may be
+     *         reported right away
+     */
+    long getDelay(long now) {
+        return Math.max(0, mReportedTime + mWindowMillis - now);
+    }
+
+    /**
+     * Marks the smoothed level as reported, if it changed.
+     *
+     * @return the level to report, or {@link #NO_LEVEL} if it did not change
+     */
+    int report(long now) {
+        final int level = getSmoothedLevel();
+        if (level == mReportedLevel) {
+            return NO_LEVEL;
+        }
+        mReportedLevel = level;
+        mReportedTime = now;
+        return level;
+    }
+}
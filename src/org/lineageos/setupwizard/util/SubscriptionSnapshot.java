@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.util;
+
+import static android.telephony.TelephonyManager.PHONE_TYPE_GSM;
+import static android.telephony.TelephonyManager.SIM_STATE_ABSENT;
+
+import static com.android.internal.telephony.PhoneConstants.LTE_ON_CDMA_TRUE;
+import static com.android.internal.telephony.PhoneConstants.LTE_ON_CDMA_UNKNOWN;
+
+import android.sysprop.TelephonyProperties;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable view of the active subscriptions and SIM slots, read in one go so that the
+ * {@link PhoneMonitor} queries do not need any binder calls. A new snapshot is built whenever
+ * the subscriptions or a SIM state change.
+ *
+ * <p>The snapshot also holds a {@link TelephonyManager} per subscription. Instances are
+ * carried over from the previous snapshot, so each subscription only ever gets one.
+ */
+final class SubscriptionSnapshot {
+
+    private final List<SubscriptionInfo> mSubscriptions;
+    private final int[] mSimStates;
+    private final boolean mMultiSim;
+    private final SparseArray<TelephonyManager> mTelephonyManagers;
+    private final SparseIntArray mPhoneTypes;
+    private final SparseIntArray mLteOnCdmaModes;
+    private final SparseArray<String> mSimOperatorNames;
+
+    private SubscriptionSnapshot(List<SubscriptionInfo> subscriptions, int[] simStates,
+            boolean multiSim, SparseArray<TelephonyManager> telephonyManagers,
+            SparseIntArray phoneTypes, SparseIntArray lteOnCdmaModes,
+            SparseArray<String> simOperatorNames) {
+        mSubscriptions = subscriptions;
+        mSimStates = simStates;
+        mMultiSim = multiSim;
+        mTelephonyManagers = telephonyManagers;
+        mPhoneTypes = phoneTypes;
+        mLteOnCdmaModes = lteOnCdmaModes;
+        mSimOperatorNames = simOperatorNames;
+    }
+
+    static SubscriptionSnapshot build(TelephonyManager telephony,
+            SubscriptionManager subscriptionManager, SubscriptionSnapshot previous) {
+        List<SubscriptionInfo> subscriptions =
+                subscriptionManager.getActiveSubscriptionInfoList();
+        subscriptions = subscriptions != null
+                ? Collections.unmodifiableList(subscriptions) : Collections.emptyList();
+        final int simCount = telephony.getSimCount();
+        int[] simStates = new int[simCount];
+        for (int slot = 0; slot < simCount; slot++) {
+            simStates[slot] = telephony.getSimState(slot);
+        }
+        final int subCount = subscriptions.size();
+        SparseArray<TelephonyManager> telephonyManagers = new SparseArray<>(subCount);
+        SparseIntArray phoneTypes = new SparseIntArray(subCount);
+        SparseIntArray lteOnCdmaModes = new SparseIntArray(subCount);
+        SparseArray<String> simOperatorNames = new SparseArray<>(subCount);
+        for (SubscriptionInfo subscription : subscriptions) {
+            final int subId = subscription.getSubscriptionId();
+            TelephonyManager subTelephony = previous != null
+                    ? previous.mTelephonyManagers.get(subId) : null;
+            if (subTelephony == null) {
+                subTelephony = telephony.createForSubscriptionId(subId);
+            }
+            telephonyManagers.put(subId, subTelephony);
+            phoneTypes.put(subId, subTelephony.getCurrentPhoneType());
+            int lteOnCdmaMode = subTelephony.getLteOnCdmaMode(subId);
+            if (lteOnCdmaMode == LTE_ON_CDMA_UNKNOWN) {
+                lteOnCdmaMode = TelephonyProperties.lte_on_cdma_device()
+                        .orElse(LTE_ON_CDMA_UNKNOWN);
+            }
+            lteOnCdmaModes.put(subId, lteOnCdmaMode);
+            simOperatorNames.put(subId, subTelephony.getSimOperatorName());
+        }
+        return new SubscriptionSnapshot(subscriptions, simStates,
+                telephony.isMultiSimEnabled(), telephonyManagers, phoneTypes, lteOnCdmaModes,
+                simOperatorNames);
+    }
+
+    List<SubscriptionInfo> getSubscriptions() {
+        return mSubscriptions;
+    }
+
+    SubscriptionInfo getSubscription(int subId) {
+        for (SubscriptionInfo subscription : mSubscriptions) {
+            if (subscription.getSubscriptionId() == subId) {
+                return subscription;
+            }
+        }
+        return null;
+    }
+
+    int getSimCount() {
+        return mSimStates.length;
+    }
+
+    int getSimState(int slot) {
+        return slot >= 0 && slot < mSimStates.length
+                ? mSimStates[slot] : TelephonyManager.SIM_STATE_UNKNOWN;
+    }
+
+    boolean isMultiSim() {
+        return mMultiSim;
+    }
+
+    /**
+     * @return the TelephonyManager of an active subscription, or null
+     */
+    TelephonyManager getTelephonyManager(int subId) {
+        return mTelephonyManagers.get(subId);
+    }
+
+    int getLteOnCdmaMode(int subId) {
+        return mLteOnCdmaModes.get(subId,
+                TelephonyProperties.lte_on_cdma_device().orElse(LTE_ON_CDMA_UNKNOWN));
+    }
+
+    boolean isGsm(int subId) {
+        return mPhoneTypes.get(subId, TelephonyManager.PHONE_TYPE_NONE) == PHONE_TYPE_GSM;
+    }
+
+    boolean isLte(int subId) {
+        return getLteOnCdmaMode(subId) == LTE_ON_CDMA_TRUE;
+    }
+
+    String getSimOperatorName(int subId) {
+        return mSimOperatorNames.get(subId);
+    }
+
+    boolean hasAbsentSim() {
+        for (int simState : mSimStates) {
+            if (simState == SIM_STATE_ABSENT) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
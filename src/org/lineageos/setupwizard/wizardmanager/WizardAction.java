@@ -41,6 +41,8 @@ public class WizardAction implements Parcelable {
     private final String mId;
     private final String mUri;
     private final WizardTransitions mTransitions;
+    // Parsed once; never handed out, callers get copies
+    private final Intent mIntentTemplate;
 
     public WizardAction(String id, String uri, WizardTransitions transitions) {
         if (transitions == null) {
@@ -49,6 +51,19 @@ public class WizardAction implements Parcelable {
         mId = id;
         mUri = uri;
         mTransitions = transitions;
+        mIntentTemplate = parseIntent(uri);
+    }
+
+    private static Intent parseIntent(String uri) {
+        if (uri == null) {
+            return null;
+        }
+        try {
+            return Intent.parseUri(uri, FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (URISyntaxException e) {
+            Log.e(TAG, "Bad URI: " + uri);
+            return null;
+        }
     }
 
     public String getId() {
@@ -59,14 +74,15 @@ public class WizardAction implements Parcelable {
         return mUri;
     }
 
+    /**
+     * @return a new copy of the intent this action starts, or null if its URI is invalid
+     */
     public Intent getIntent() {
-        Intent intent = null;
-        try {
-            intent = Intent.parseUri(mUri, FLAG_GRANT_READ_URI_PERMISSION);
-        } catch (URISyntaxException e) {
-            Log.e(TAG, "Bad URI: " + mUri);
-        }
-        return intent;
+        return mIntentTemplate != null ? new Intent(mIntentTemplate) : null;
+    }
+
+    WizardTransitions getTransitions() {
+        return mTransitions;
     }
 
     public String getNextAction(int resultCode) {
@@ -110,16 +126,17 @@ public class WizardAction implements Parcelable {
     }
 
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeString(mUri);
         dest.writeString(mId);
-        dest.writeParcelable(mTransitions, flags);
+        dest.writeString(mUri);
+        // Always a WizardTransitions, no need for the class name writeParcelable would add
+        mTransitions.writeToParcel(dest, flags);
     }
 
     public static final Creator<WizardAction> CREATOR = new Creator<WizardAction>() {
         public WizardAction createFromParcel(Parcel source) {
             return new WizardAction(source.readString(),
                     source.readString(),
-                    source.readParcelable(WizardTransitions.class.getClassLoader()));
+                    WizardTransitions.CREATOR.createFromParcel(source));
         }
 
         public WizardAction[] newArray(int size) {
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.wizardmanager;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Immutable, int-indexed transition table of a wizard script.
+ *
+ * <p>Actions are addressed by their index in {@link #getActionId(int)}. Every action has a
+ * default next action and a table of result codes, sorted ascending, with the next action for
+ * each. Transitions to ids that are not declared in the script are lowered to
+ * {@link #NO_ACTION}.
+ *
+ * This class must not depend on the Android framework, as it is shared with the host tools.
+ */
+public final class WizardGraph {
+
+    public static final int NO_ACTION = -1;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final String[] mActionIds;
+    private final HashMap<String, Integer> mActionIndices;
+    private final int mFirstAction;
+    private final int[] mDefaultActions;
+    private final int[][] mResultCodes;
+    private final int[][] mResultActions;
+
+    /**
+     * The graph takes ownership of the given arrays; callers must not modify them afterwards.
+     * A null result table is treated as empty.
+     */
+    public WizardGraph(String[] actionIds, int firstAction, int[] defaultActions,
+            int[][] resultCodes, int[][] resultActions) {
+        final int count = actionIds.length;
+        if (defaultActions.length != count || resultCodes.length != count
+                || resultActions.length != count) {
+            throw new IllegalArgumentException("Action tables differ in length");
+        }
+        mActionIds = actionIds;
+        mActionIndices = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            mActionIndices.put(actionIds[i], i);
+        }
+        mFirstAction = checkAction(firstAction);
+        mDefaultActions = defaultActions;
+        mResultCodes = resultCodes;
+        mResultActions = resultActions;
+        for (int i = 0; i < count; i++) {
+            mDefaultActions[i] = checkAction(mDefaultActions[i]);
+            if (mResultCodes[i] == null || mResultActions[i] == null) {
+                mResultCodes[i] = EMPTY;
+                mResultActions[i] = EMPTY;
+            } else if (mResultCodes[i].length != mResultActions[i].length) {
+                throw new IllegalArgumentException("Result tables differ in length for "
+                        + actionIds[i]);
+            }
+            sortResults(mResultCodes[i], mResultActions[i]);
+        }
+    }
+
+    private int checkAction(int action) {
+        return action >= 0 && action < mActionIds.length ? action : NO_ACTION;
+    }
+
+    private void sortResults(int[] codes, int[] actions) {
+        for (int i = 0; i < actions.length; i++) {
+            actions[i] = checkAction(actions[i]);
+        }
+        // Result tables hold a handful of entries at most, insertion sort is all we need.
+        for (int i = 1; i < codes.length; i++) {
+            final int code = codes[i];
+            final int action = actions[i];
+            int j = i - 1;
+            while (j >= 0 && codes[j] > code) {
+                codes[j + 1] = codes[j];
+                actions[j + 1] = actions[j];
+                j--;
+            }
+            codes[j + 1] = code;
+            actions[j + 1] = action;
+        }
+    }
+
+    public int getActionCount() {
+        return mActionIds.length;
+    }
+
+    public String getActionId(int action) {
+        return mActionIds[action];
+    }
+
+    public int getActionIndex(String actionId) {
+        final Integer index = actionId != null ? mActionIndices.get(actionId) : null;
+        return index != null ? index : NO_ACTION;
+    }
+
+    public int getFirstAction() {
+        return mFirstAction;
+    }
+
+    public int getDefaultAction(int action) {
+        return mDefaultActions[action];
+    }
+
+    public int getResultCount(int action) {
+        return mResultCodes[action].length;
+    }
+
+    public int getResultCode(int action, int index) {
+        return mResultCodes[action][index];
+    }
+
+    public int getResultAction(int action, int index) {
+        return mResultActions[action][index];
+    }
+
+    public int getNextAction(int action, int resultCode) {
+        if (action < 0 || action >= mActionIds.length) {
+            return NO_ACTION;
+        }
+        final int index = Arrays.binarySearch(mResultCodes[action], resultCode);
+        return index >= 0 ? mResultActions[action][index] : mDefaultActions[action];
+    }
+
+    @Override
+    public String toString() {
+        return "WizardGraph{" +
+                "actions=" + mActionIds.length +
+                ", firstAction=" + (mFirstAction != NO_ACTION ? mActionIds[mFirstAction] : null) +
+                '}';
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.wizardmanager;
+
+import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Append-only record of the wizard actions started and the result codes they finished with,
+ * kept so that setup can resume at the last incomplete action after the process died or the
+ * device rebooted.
+ *
+ * <p>The journal is a text file with one record per line:
+ * <pre>
+ *   S scriptUri           script loaded
+ *   A actionId            action started
+ *   R resultCode actionId action finished
+ * </pre>
+ * Records are appended on a background thread. The file is only synced to disk once writes
+ * have settled for {@link #SYNC_DELAY_MS}, so a burst of transitions costs a single fsync.
+ * A partially written last line is ignored when reading. The thread quits once the journal is
+ * cleared at the end of setup.
+ */
+public class WizardJournal {
+
+    private static final String TAG = WizardJournal.class.getSimpleName();
+
+    private static final String JOURNAL_FILE = "wizard_journal";
+    private static final long SYNC_DELAY_MS = 500;
+
+    private static final char RECORD_SCRIPT = 'S';
+    private static final char RECORD_ACTION = 'A';
+    private static final char RECORD_RESULT = 'R';
+
+    private final File mFile;
+    private final Object mLock = new Object();
+    // Guarded by mLock
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    // Only used on the journal thread
+    private Handler mWorkHandler;
+    private FileOutputStream mOut;
+
+    private final Runnable mSyncRunnable = this::sync;
+
+    public WizardJournal(File dir) {
+        mFile = new File(dir, JOURNAL_FILE);
+    }
+
+    /**
+     * Starts a new journal for the script, dropping any previous one.
+     */
+    public void startScript(String scriptUri) {
+        post(() -> {
+            close();
+            if (mFile.exists() && !mFile.delete()) {
+                Log.w(TAG, "Unable to reset journal " + mFile);
+            }
+            append(RECORD_SCRIPT + " " + scriptUri);
+        });
+    }
+
+    public void actionStarted(String actionId) {
+        post(() -> append(RECORD_ACTION + " " + actionId));
+    }
+
+    public void actionFinished(String actionId, int resultCode) {
+        post(() -> append(RECORD_RESULT + " " + resultCode + " " + actionId));
+    }
+
+    /**
+     * Removes the journal, once the script completed, and lets the thread go. Writing to the
+     * journal again starts a new thread.
+     */
+    public void clear() {
+        synchronized (mLock) {
+            post(() -> {
+                close();
+                if (mFile.exists() && !mFile.delete()) {
+                    Log.w(TAG, "Unable to delete journal " + mFile);
+                }
+            });
+            // Runs what is already queued; a pending delayed sync is dropped, close() syncs
+            mThread.quitSafely();
+            mHandler = null;
+        }
+    }
+
+    /**
+     * Reads the journal synchronously. Does disk I/O, so keep it off the main thread.
+     *
+     * @return the id of the last action started for the script and not completed, or null if
+     * the journal is missing or belongs to another script
+     */
+    public String getResumeActionId(String scriptUri) {
+        String journalScriptUri = null;
+        String actionId = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(mFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() < 2 || line.charAt(1) != ' ') {
+                    continue;
+                }
+                final String value = line.substring(2);
+                switch (line.charAt(0)) {
+                    case RECORD_SCRIPT:
+                        journalScriptUri = value;
+                        actionId = null;
+                        break;
+                    case RECORD_ACTION:
+                        actionId = value;
+                        break;
+                    case RECORD_RESULT:
+                        // The next action is started right after, nothing to track here.
+                        break;
+                }
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read journal " + mFile, e);
+            return null;
+        }
+        if (LOGV) {
+            Log.v(TAG, "getResumeActionId scriptUri=" + journalScriptUri
+                    + " actionId=" + actionId);
+        }
+        return scriptUri.equals(journalScriptUri) ? actionId : null;
+    }
+
+    private void post(Runnable r) {
+        synchronized (mLock) {
+            if (mHandler == null) {
+                final HandlerThread previous = mThread;
+                mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+                mThread.start();
+                mHandler = new Handler(mThread.getLooper());
+                if (previous != null) {
+                    // Let a thread that quit finish its writes before this one touches the file
+                    mHandler.post(() -> joinQuietly(previous));
+                }
+            }
+            mHandler.post(r);
+        }
+    }
+
+    private static void joinQuietly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Handler getWorkHandler() {
+        if (mWorkHandler == null || mWorkHandler.getLooper() != Looper.myLooper()) {
+            mWorkHandler = new Handler(Looper.myLooper());
+        }
+        return mWorkHandler;
+    }
+
+    private void append(String record) {
+        try {
+            if (mOut == null) {
+                mOut = new FileOutputStream(mFile, true);
+            }
+            mOut.write((record + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to append to journal " + mFile, e);
+            close();
+            return;
+        }
+        getWorkHandler().removeCallbacks(mSyncRunnable);
+        getWorkHandler().postDelayed(mSyncRunnable, SYNC_DELAY_MS);
+    }
+
+    private void sync() {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            mOut.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to sync journal " + mFile, e);
+        }
+    }
+
+    private void close() {
+        getWorkHandler().removeCallbacks(mSyncRunnable);
+        if (mOut != null) {
+            sync();
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            mOut = null;
+        }
+    }
+}
@@ -26,25 +26,23 @@ import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
 
 import android.annotation.Nullable;
 import android.app.Activity;
-import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.util.Log;
 
-import com.google.android.setupcompat.util.ResultCodes;
-import com.google.android.setupcompat.util.WizardManagerHelper;
-import com.google.android.setupdesign.util.ThemeHelper;
-
-import org.lineageos.setupwizard.util.SetupWizardUtils;
-
-import java.util.HashMap;
+import org.lineageos.setupwizard.SetupWizardApp;
 
+/**
+ * Entry point for the com.android.wizard LOAD and NEXT contract. Our own pages navigate
+ * in-process through {@link WizardNavigator}; this activity only serves callers that go
+ * through the intent based contract, like the initial load and setupcompat's
+ * WizardManagerHelper.
+ */
 public class WizardManager extends Activity {
 
     private static final String TAG = WizardManager.class.getSimpleName();
 
-    private static final HashMap<String, WizardScript> sWizardScripts = new HashMap();
+    private WizardNavigator mWizardNavigator;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -52,6 +50,7 @@ public class WizardManager extends Activity {
         if (LOGV) {
             Log.v(TAG, "onCreate savedInstanceState=" + savedInstanceState);
         }
+        mWizardNavigator = ((SetupWizardApp) getApplication()).getWizardNavigator();
         Intent intent = this.getIntent();
         if (intent != null) {
             String action = intent.getAction();
@@ -64,7 +63,7 @@ public class WizardManager extends Activity {
             }
 
             if (ACTION_LOAD.equals(action)) {
-                load(scriptUri, intent);
+                load(scriptUri, actionId, intent);
                 finish();
                 return;
             }
@@ -82,51 +81,17 @@ public class WizardManager extends Activity {
         finish();
     }
 
-    private void addExtras(Intent intent) {
-        intent.putExtra(WizardManagerHelper.EXTRA_IS_FIRST_RUN, true);
-        intent.putExtra(WizardManagerHelper.EXTRA_THEME, ThemeHelper.THEME_GLIF_V3_LIGHT);
-    }
-
-    private void doAction(String scriptUri, WizardAction action, Intent extras) {
-        Intent intent = action.getIntent();
-        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-        if (LOGV) {
-            Log.v(TAG, "doAction scriptUri=" + scriptUri + " extras=" + extras
-                    + " intent=" + intent + " extras2=" + intent.getExtras() + " action=" + action);
-        }
-
-        addExtras(intent);
-        if (extras != null) {
-            intent.putExtras(extras);
+    private void load(String scriptUri, String resumeActionId, Intent extras) {
+        Bundle bundle = extras.getExtras();
+        if (bundle != null) {
+            // Consumed here, the started action gets its own id
+            bundle.remove(EXTRA_ACTION_ID);
         }
-
-        intent.putExtra(EXTRA_SCRIPT_URI, scriptUri);
-        intent.putExtra(EXTRA_ACTION_ID, action.getId());
-        startActivity(intent);
-    }
-
-    private void load(String scriptUri, Intent extras) {
-        WizardScript wizardScript = getWizardScript(this, scriptUri);
-        WizardAction wizardAction;
-        for (wizardAction = wizardScript.getFirstAction();
-                wizardAction != null;
-                wizardAction = wizardScript.getNextAction(wizardAction.getId(),
-                        ResultCodes.RESULT_ACTIVITY_NOT_FOUND)) {
-            if (isActionAvailable(this, wizardAction)) {
-                break;
-            }
-
-            if (LOGV) {
-                Log.v(TAG, "load action not available " + wizardAction);
-            }
-        }
-
-        if (wizardAction != null) {
-            doAction(scriptUri, wizardAction, extras);
+        Intent intent = mWizardNavigator.getFirstIntent(scriptUri, resumeActionId, bundle);
+        if (intent != null) {
+            startActivity(intent);
         } else {
-            Log.e(TAG, "load could not resolve first action scriptUri=" +
-                    scriptUri + " actionId=" + wizardScript.getFirstActionId());
-            exit(scriptUri);
+            mWizardNavigator.exit(scriptUri);
         }
     }
 
@@ -134,68 +99,12 @@ public class WizardManager extends Activity {
         if (LOGV) {
             Log.v(TAG, "next actionId=" + actionId + " resultCode=" + resultCode);
         }
-        WizardAction wizardAction = checkNextAction(this, scriptUri,
-                actionId, resultCode);
-        if (wizardAction != null) {
-            doAction(scriptUri, wizardAction, extras);
+        Intent intent = mWizardNavigator.getNextIntent(scriptUri, actionId, resultCode,
+                extras.getExtras());
+        if (intent != null) {
+            startActivity(intent);
         } else {
-            exit(scriptUri);
-        }
-    }
-
-    private void exit(String scriptUri) {
-        if (LOGV) {
-            Log.v(TAG, "exit scriptUri=" + scriptUri);
+            mWizardNavigator.exit(scriptUri);
         }
-        WizardManager.sWizardScripts.remove(scriptUri);
-        SetupWizardUtils.disableComponent(this, WizardManager.class);
     }
-
-    private static WizardAction checkNextAction(Context context, String scriptUri, String actionId,
-            int resultCode) {
-        if (LOGV) {
-            Log.v(TAG, "checkNextAction scriptUri=" + scriptUri + " actionId="
-                    + actionId + " resultCode=" + resultCode);
-        }
-
-        WizardScript wizardScript = getWizardScript(context, scriptUri);
-        WizardAction wizardAction;
-        for (wizardAction = wizardScript.getNextAction(actionId, resultCode);
-                wizardAction != null;
-                wizardAction = wizardScript.getNextAction(wizardAction.getId(),
-                        ResultCodes.RESULT_ACTIVITY_NOT_FOUND)) {
-            if (WizardManager.isActionAvailable(context, wizardAction)) {
-                break;
-            }
-
-            if (LOGV) {
-                Log.v(TAG, "checkNextAction action not available " + wizardAction);
-            }
-        }
-
-        if (LOGV) {
-            Log.v(TAG, "checkNextAction action=" + wizardAction);
-        }
-
-        return wizardAction;
-    }
-
-    private static boolean isActionAvailable(Context context, WizardAction action) {
-        return isIntentAvailable(context, action.getIntent());
-    }
-
-    private static boolean isIntentAvailable(Context context, Intent intent) {
-        return context.getPackageManager().queryIntentActivities(intent,
-                PackageManager.MATCH_DEFAULT_ONLY).size() > 0;
-    }
-
-    private static WizardScript getWizardScript(Context context, String scriptUri) {
-        WizardScript wizardScript = sWizardScripts.get(scriptUri);
-        if (wizardScript == null) {
-            wizardScript = WizardScript.loadFromUri(context, scriptUri);
-            sWizardScripts.put(scriptUri, wizardScript);
-        }
-        return wizardScript;
-    }
-
 }
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.wizardmanager;
+
+import static android.app.Activity.RESULT_CANCELED;
+import static android.app.Activity.RESULT_OK;
+
+import static org.lineageos.setupwizard.SetupWizardApp.EXTRA_ACTION_ID;
+import static org.lineageos.setupwizard.SetupWizardApp.EXTRA_SCRIPT_URI;
+import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.google.android.setupcompat.util.ResultCodes;
+import com.google.android.setupcompat.util.WizardManagerHelper;
+import com.google.android.setupdesign.util.ThemeHelper;
+
+import org.lineageos.setupwizard.util.BackgroundExecutor;
+import org.lineageos.setupwizard.util.SetupWizardUtils;
+
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Resolves wizard script transitions in-process, so pages can start the next page directly
+ * instead of bouncing through the {@link WizardManager} activity.
+ */
+public class WizardNavigator {
+
+    private static final String TAG = WizardNavigator.class.getSimpleName();
+
+    private final Context mContext;
+
+    private final WizardScriptRegistry mWizardScripts;
+    private final WizardJournal mWizardJournal;
+    private final HashMap<String, WizardRoute> mWizardRoutes = new HashMap<>();
+    // Journal reads started by preload(), taken by the first getFirstIntent() of the script
+    private final ConcurrentHashMap<String, FutureTask<String>> mResumeActionIds =
+            new ConcurrentHashMap<>();
+
+    private BroadcastReceiver mPackageReceiver;
+
+    // Component state changes that routes must not be built before
+    private volatile CompletableFuture<?> mPendingComponentStates =
+            CompletableFuture.completedFuture(null);
+
+    public WizardNavigator(Context context) {
+        mContext = context.getApplicationContext();
+        mWizardScripts = new WizardScriptRegistry(mContext);
+        mWizardJournal = new WizardJournal(mContext.getFilesDir());
+    }
+
+    /**
+     * Makes routes wait for the given component state changes before they are built, as
+     * pages that are about to be disabled would otherwise end up on them.
+     */
+    public void setPendingComponentStates(CompletableFuture<?> componentStates) {
+        mPendingComponentStates = componentStates;
+    }
+
+    /**
+     * Starts loading the script, reading the navigation journal and building the route of the
+     * script in the background, so all are ready by the time the first page is requested.
+     */
+    public void preload(String scriptUri) {
+        mWizardScripts.preload(scriptUri);
+        final FutureTask<String> task = newResumeActionIdTask(scriptUri);
+        if (mResumeActionIds.putIfAbsent(scriptUri, task) == null) {
+            BackgroundExecutor.get().execute(task);
+        }
+        BackgroundExecutor.get().execute(() -> {
+            awaitComponentStates();
+            final WizardScript wizardScript = mWizardScripts.get(scriptUri);
+            if (wizardScript != null) {
+                getWizardRoute(scriptUri, wizardScript);
+            }
+        });
+    }
+
+    /**
+     * @param resumeActionId action to resume at, or null to resume where an earlier run of the
+     * script that did not get to complete left off, if any
+     * @return the intent starting the first available action of the script, or null if there
+     * is none
+     */
+    public Intent getFirstIntent(String scriptUri, String resumeActionId, Bundle extras) {
+        if (resumeActionId == null) {
+            resumeActionId = takeResumeActionId(scriptUri);
+        } else {
+            mResumeActionIds.remove(scriptUri);
+        }
+        WizardScript wizardScript = mWizardScripts.get(scriptUri);
+        if (wizardScript == null) {
+            return null;
+        }
+        // Only waits if the preload did not get to build the route yet
+        awaitComponentStates();
+        final WizardRoute wizardRoute = getWizardRoute(scriptUri, wizardScript);
+        int action = wizardRoute.getAvailableAction(
+                wizardScript.getGraph().getActionIndex(resumeActionId));
+        if (action == WizardGraph.NO_ACTION) {
+            action = wizardRoute.getFirstAction();
+        } else if (LOGV) {
+            Log.v(TAG, "load resuming at " + wizardScript.getGraph().getActionId(action));
+        }
+        WizardAction wizardAction = wizardScript.getAction(action);
+        if (wizardAction == null) {
+            Log.e(TAG, "load could not resolve first action scriptUri=" +
+                    scriptUri + " actionId=" + wizardScript.getFirstActionId());
+            return null;
+        }
+        // Only now, so a run that cannot start keeps the journal of the interrupted one
+        mWizardJournal.startScript(scriptUri);
+        return createIntent(scriptUri, wizardAction, extras);
+    }
+
+    /**
+     * @return the intent starting the next available action after the given action finished
+     * with the given result code, or null if the script ends there
+     */
+    public Intent getNextIntent(String scriptUri, String actionId, int resultCode,
+            Bundle extras) {
+        if (LOGV) {
+            Log.v(TAG, "getNextIntent scriptUri=" + scriptUri + " actionId="
+                    + actionId + " resultCode=" + resultCode);
+        }
+        if (resultCode == RESULT_CANCELED) {
+            if (LOGV) {
+                Log.v(TAG, "getNextIntent RESULT_CANCELED not expected; ignored");
+            }
+            return null;
+        }
+        mWizardJournal.actionFinished(actionId, resultCode);
+        WizardScript wizardScript = mWizardScripts.get(scriptUri);
+        if (wizardScript == null) {
+            return null;
+        }
+        WizardAction wizardAction = wizardScript.getAction(getWizardRoute(scriptUri, wizardScript)
+                .getNextAction(wizardScript.getGraph().getActionIndex(actionId), resultCode));
+        if (LOGV) {
+            Log.v(TAG, "getNextIntent action=" + wizardAction);
+        }
+        return wizardAction != null ? createIntent(scriptUri, wizardAction, extras) : null;
+    }
+
+    public void exit(String scriptUri) {
+        if (LOGV) {
+            Log.v(TAG, "exit scriptUri=" + scriptUri);
+        }
+        mWizardScripts.remove(scriptUri);
+        mWizardJournal.clear();
+        synchronized (this) {
+            mWizardRoutes.remove(scriptUri);
+        }
+        SetupWizardUtils.disableComponent(mContext, WizardManager.class);
+    }
+
+    /**
+     * Drops all availability snapshots. Needs to be called synchronously whenever we change
+     * the enabled state of a component ourselves, as the package broadcast arrives later.
+     */
+    public synchronized void invalidateRoutes() {
+        if (LOGV && !mWizardRoutes.isEmpty()) {
+            Log.v(TAG, "invalidateRoutes");
+        }
+        mWizardRoutes.clear();
+    }
+
+    private void awaitComponentStates() {
+        try {
+            mPendingComponentStates.join();
+        } catch (CancellationException | CompletionException e) {
+            Log.e(TAG, "Unable to change component states", e);
+        }
+    }
+
+    private FutureTask<String> newResumeActionIdTask(String scriptUri) {
+        return new FutureTask<>(() -> mWizardJournal.getResumeActionId(scriptUri));
+    }
+
+    /**
+     * @return the action the journal says to resume the script at, read by the preload or on
+     * the calling thread if there was none
+     */
+    private String takeResumeActionId(String scriptUri) {
+        FutureTask<String> task = mResumeActionIds.remove(scriptUri);
+        if (task == null) {
+            task = newResumeActionIdTask(scriptUri);
+        }
+        // No-op if the read already started elsewhere, steals it from the queue otherwise.
+        task.run();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Unable to read the journal of " + scriptUri, e.getCause());
+            return null;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Intent createIntent(String scriptUri, WizardAction action, Bundle extras) {
+        Intent intent = action.getIntent();
+        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        if (LOGV) {
+            Log.v(TAG, "createIntent scriptUri=" + scriptUri + " extras=" + extras
+                    + " intent=" + intent + " extras2=" + intent.getExtras() + " action=" + action);
+        }
+
+        intent.putExtra(WizardManagerHelper.EXTRA_IS_FIRST_RUN, true);
+        intent.putExtra(WizardManagerHelper.EXTRA_THEME, ThemeHelper.THEME_GLIF_V3_LIGHT);
+        if (extras != null) {
+            intent.putExtras(extras);
+        }
+
+        intent.putExtra(EXTRA_SCRIPT_URI, scriptUri);
+        intent.putExtra(EXTRA_ACTION_ID, action.getId());
+        mWizardJournal.actionStarted(action.getId());
+        return intent;
+    }
+
+    /**
+     * Returns the navigation table of the script for the current availability of its actions,
+     * taking a new availability snapshot if packages or components changed since the last one.
+     */
+    private synchronized WizardRoute getWizardRoute(String scriptUri,
+            WizardScript wizardScript) {
+        WizardRoute wizardRoute = mWizardRoutes.get(scriptUri);
+        if (wizardRoute == null || wizardRoute.getGraph() != wizardScript.getGraph()) {
+            registerPackageReceiver();
+            wizardRoute = createWizardRoute(wizardScript);
+            mWizardRoutes.put(scriptUri, wizardRoute);
+        }
+        return wizardRoute;
+    }
+
+    private WizardRoute createWizardRoute(WizardScript wizardScript) {
+        final WizardGraph graph = wizardScript.getGraph();
+        final boolean[] available = new boolean[graph.getActionCount()];
+        // Scripts commonly point several actions at the same intent, query each one only once.
+        final HashMap<String, Boolean> availableUris = new HashMap<>();
+        for (int i = 0; i < available.length; i++) {
+            WizardAction wizardAction = wizardScript.getAction(i);
+            Boolean isAvailable = availableUris.get(wizardAction.getUri());
+            if (isAvailable == null) {
+                isAvailable = isActionAvailable(wizardAction);
+                availableUris.put(wizardAction.getUri(), isAvailable);
+            }
+            available[i] = isAvailable;
+            if (LOGV && !isAvailable) {
+                Log.v(TAG, "action not available " + wizardAction);
+            }
+        }
+        return new WizardRoute(graph, available, ResultCodes.RESULT_ACTIVITY_NOT_FOUND,
+                RESULT_OK);
+    }
+
+    private void registerPackageReceiver() {
+        if (mPackageReceiver != null) {
+            return;
+        }
+        mPackageReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (LOGV) {
+                    Log.v(TAG, "onReceive " + intent);
+                }
+                invalidateRoutes();
+            }
+        };
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        mContext.registerReceiver(mPackageReceiver, filter);
+    }
+
+    private boolean isActionAvailable(WizardAction action) {
+        Intent intent = action.getIntent();
+        return intent != null && mContext.getPackageManager().queryIntentActivities(intent,
+                PackageManager.MATCH_DEFAULT_ONLY).size() > 0;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.wizardmanager;
+
+import java.util.Arrays;
+
+/**
+ * Navigation table of a {@link WizardGraph} for one snapshot of action availability.
+ *
+ * <p>Every transition is resolved ahead of time through the chain of skip transitions that is
+ * taken when an action is not available, so looking up the next page never has to ask the
+ * package manager. The route also numbers the pages on the forward path, starting at the first
+ * available action.
+ *
+ * This class must not depend on the Android framework, as it is shared with the host tools.
+ */
+public final class WizardRoute {
+
+    private final WizardGraph mGraph;
+    private final boolean[] mAvailable;
+    private final int mSkipResultCode;
+    private final int mFirstAction;
+    private final int[] mDefaultActions;
+    private final int[][] mResultActions;
+    private final int[] mPagePositions;
+    private final int mPageCount;
+
+    /**
+     * @param available availability of each action of the graph, by action index
+     * @param skipResultCode result code followed past actions that are not available
+     * @param forwardResultCode result code used to number the pages on the forward path
+     */
+    public WizardRoute(WizardGraph graph, boolean[] available, int skipResultCode,
+            int forwardResultCode) {
+        final int count = graph.getActionCount();
+        if (available.length != count) {
+            throw new IllegalArgumentException("Availability does not match the graph");
+        }
+        mGraph = graph;
+        mAvailable = available;
+        mSkipResultCode = skipResultCode;
+        mFirstAction = resolve(graph.getFirstAction());
+        mDefaultActions = new int[count];
+        mResultActions = new int[count][];
+        for (int i = 0; i < count; i++) {
+            mDefaultActions[i] = resolve(graph.getDefaultAction(i));
+            mResultActions[i] = new int[graph.getResultCount(i)];
+            for (int j = 0; j < mResultActions[i].length; j++) {
+                mResultActions[i][j] = resolve(graph.getResultAction(i, j));
+            }
+        }
+
+        mPagePositions = new int[count];
+        Arrays.fill(mPagePositions, -1);
+        int pages = 0;
+        for (int action = mFirstAction;
+                action != WizardGraph.NO_ACTION && mPagePositions[action] == -1;
+                action = getNextAction(action, forwardResultCode)) {
+            mPagePositions[action] = pages++;
+        }
+        mPageCount = pages;
+    }
+
+    private int resolve(int action) {
+        // Bound the walk so a cycle of unavailable actions ends the flow instead of spinning.
+        for (int steps = 0; action != WizardGraph.NO_ACTION; steps++) {
+            if (mAvailable[action]) {
+                return action;
+            }
+            if (steps >= mAvailable.length) {
+                break;
+            }
+            action = mGraph.getNextAction(action, mSkipResultCode);
+        }
+        return WizardGraph.NO_ACTION;
+    }
+
+    public WizardGraph getGraph() {
+        return mGraph;
+    }
+
+    public boolean isAvailable(int action) {
+        return mAvailable[action];
+    }
+
+    /**
+     * @return the first available action, or {@link WizardGraph#NO_ACTION}
+     */
+    public int getFirstAction() {
+        return mFirstAction;
+    }
+
+    /**
+     * @return the action itself if it is available, otherwise the available action its skip
+     * transitions lead to, or {@link WizardGraph#NO_ACTION}
+     */
+    public int getAvailableAction(int action) {
+        if (action < 0 || action >= mAvailable.length) {
+            return WizardGraph.NO_ACTION;
+        }
+        return resolve(action);
+    }
+
+    /**
+     * @return the next available action, or {@link WizardGraph#NO_ACTION} if the flow ends
+     */
+    public int getNextAction(int action, int resultCode) {
+        if (action < 0 || action >= mDefaultActions.length) {
+            return WizardGraph.NO_ACTION;
+        }
+        final int count = mGraph.getResultCount(action);
+        for (int i = 0; i < count; i++) {
+            final int code = mGraph.getResultCode(action, i);
+            if (code == resultCode) {
+                return mResultActions[action][i];
+            } else if (code > resultCode) {
+                break;
+            }
+        }
+        return mDefaultActions[action];
+    }
+
+    /**
+     * @return the zero based position of the action on the forward path, or -1 if the action
+     * is not on it
+     */
+    public int getPagePosition(int action) {
+        return action >= 0 && action < mPagePositions.length ? mPagePositions[action] : -1;
+    }
+
+    public int getPageCount() {
+        return mPageCount;
+    }
+}
@@ -22,10 +22,13 @@ import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
 import android.app.Activity;
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.Resources;
 import android.net.Uri;
+import android.os.BadParcelableException;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
+import android.util.TypedValue;
 import android.util.Xml;
 
 import com.android.internal.util.XmlUtils;
@@ -36,9 +39,12 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class WizardScript implements Parcelable {
@@ -57,75 +63,243 @@ public class WizardScript implements Parcelable {
     public static final String ATTR_FIRST_ACTION = "firstAction";
     public static final String ATTR_RESULT_CODE = "resultCode";
 
-    private final Map<String, WizardAction> mActions;
+    /* Bump when changing the layout written by writeToParcel */
+    private static final int PARCEL_VERSION = 1;
+
+    private final WizardAction[] mActions;
+    private final WizardGraph mGraph;
     private final String mFirstActionId;
 
     public WizardScript(Map<String, WizardAction> actions, String firstActionId) {
-        mActions = Collections.unmodifiableMap(actions);
+        mActions = actions.values().toArray(new WizardAction[actions.size()]);
+        mGraph = lower(mActions, firstActionId);
         mFirstActionId = firstActionId;
     }
 
+    WizardScript(WizardAction[] actions, WizardGraph graph, String firstActionId) {
+        mActions = actions;
+        mGraph = graph;
+        mFirstActionId = firstActionId;
+    }
+
+    /**
+     * Lowers the string-keyed transitions of the given actions into a {@link WizardGraph} whose
+     * action indices match the positions in the array.
+     */
+    private static WizardGraph lower(WizardAction[] actions, String firstActionId) {
+        final int count = actions.length;
+        final String[] actionIds = new String[count];
+        final HashMap<String, Integer> indices = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            actionIds[i] = actions[i].getId();
+            indices.put(actionIds[i], i);
+        }
+        final int[] defaultActions = new int[count];
+        final int[][] resultCodes = new int[count][];
+        final int[][] resultActions = new int[count][];
+        for (int i = 0; i < count; i++) {
+            final WizardTransitions transitions = actions[i].getTransitions();
+            defaultActions[i] = indexOf(indices, transitions.getDefaultAction());
+            resultCodes[i] = new int[transitions.size()];
+            resultActions[i] = new int[transitions.size()];
+            for (int j = 0; j < transitions.size(); j++) {
+                resultCodes[i][j] = transitions.keyAt(j);
+                resultActions[i][j] = indexOf(indices, transitions.valueAt(j));
+            }
+        }
+        return new WizardGraph(actionIds, indexOf(indices, firstActionId), defaultActions,
+                resultCodes, resultActions);
+    }
+
+    private static int indexOf(HashMap<String, Integer> indices, String actionId) {
+        final Integer index = actionId != null ? indices.get(actionId) : null;
+        return index != null ? index : WizardGraph.NO_ACTION;
+    }
+
+    public WizardGraph getGraph() {
+        return mGraph;
+    }
+
+    public WizardAction getAction(int action) {
+        return action != WizardGraph.NO_ACTION ? mActions[action] : null;
+    }
+
     public WizardAction getAction(String actionId) {
-        return mActions.get(actionId);
+        return getAction(mGraph.getActionIndex(actionId));
+    }
+
+    public int getFirstActionIndex() {
+        return mGraph.getFirstAction();
     }
 
     public WizardAction getFirstAction() {
-        return getAction(mFirstActionId);
+        return getAction(mGraph.getFirstAction());
     }
 
     public String getFirstActionId() {
         return mFirstActionId;
     }
 
-    public WizardAction getNextAction(String currentActionId, int resultCode) {
-        WizardAction wizardAction = null;
-        String nextActionId = getNextActionId(currentActionId, resultCode);
-        if (nextActionId != null) {
-            wizardAction = getAction(nextActionId);
+    public int getNextActionIndex(int currentAction, int resultCode) {
+        if (resultCode == Activity.RESULT_CANCELED) {
+            if (LOGV) {
+                Log.v(TAG, "getNextActionIndex(" + currentAction + "," + resultCode
+                        + ")" + " RESULT_CANCELED not expected; ignored");
+            }
+            return WizardGraph.NO_ACTION;
         }
-        return wizardAction;
+        return mGraph.getNextAction(currentAction, resultCode);
+    }
+
+    public WizardAction getNextAction(String currentActionId, int resultCode) {
+        return getAction(getNextActionIndex(mGraph.getActionIndex(currentActionId), resultCode));
     }
 
     public String getNextActionId(String currentActionId, int resultCode) {
-        String nextActionId = null;
-        if (resultCode != Activity.RESULT_CANCELED) {
-            WizardAction wizardAction = mActions.get(currentActionId);
-            if (LOGV) {
-                StringBuilder currentAction =
-                        new StringBuilder().append("getNextActionId(").append(currentActionId)
-                                .append(",").append(resultCode).append(")").append(" current uri=");
-                String uri = wizardAction == null ? "n/a" : wizardAction.getUri();
-                Log.v(TAG, currentAction.append(uri).toString());
-            }
-            nextActionId = wizardAction.getNextAction(resultCode);
-        } else {
-            if (LOGV) {
-                Log.v(TAG, "getNextActionId(" + currentActionId + "," + resultCode
-                        + ")" + " RESULT_CANCELED not expected; ignored");
-            }
+        final int currentAction = mGraph.getActionIndex(currentActionId);
+        if (LOGV) {
+            Log.v(TAG, "getNextActionId(" + currentActionId + "," + resultCode + ")"
+                    + " current uri=" + (currentAction == WizardGraph.NO_ACTION ? "n/a"
+                    : mActions[currentAction].getUri()));
         }
-        return nextActionId;
+        final int nextAction = getNextActionIndex(currentAction, resultCode);
+        return nextAction != WizardGraph.NO_ACTION ? mGraph.getActionId(nextAction) : null;
     }
 
     public int describeContents() {
         return 0;
     }
 
+    /**
+     * Writes the script as a table of action ids followed by the transitions of each action,
+     * which refer to actions by their index in the table. Result codes and targets are written
+     * as primitive arrays. Targets that are not declared in the script are rare; they extend
+     * the table past the actions.
+     *
+     * <pre>
+     *   int version
+     *   int actionCount, String[actionCount] actionIds
+     *   String[] undeclaredIds (-1 if none)
+     *   int firstAction
+     *   per action: String uri, int defaultAction, int[] resultCodes, int[] resultActions
+     * </pre>
+     * Absent targets are written as {@link WizardGraph#NO_ACTION}.
+     */
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeString(this.mFirstActionId);
-        dest.writeTypedList(new ArrayList(this.mActions.values()));
+        final int count = mActions.length;
+        final String[] undeclaredIds = getUndeclaredTargets();
+        dest.writeInt(PARCEL_VERSION);
+        dest.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            dest.writeString(mGraph.getActionId(i));
+        }
+        dest.writeStringArray(undeclaredIds);
+        dest.writeInt(getTarget(mFirstActionId, undeclaredIds));
+        for (int i = 0; i < count; i++) {
+            final WizardAction action = mActions[i];
+            final WizardTransitions transitions = action.getTransitions();
+            dest.writeString(action.getUri());
+            dest.writeInt(getTarget(transitions.getDefaultAction(), undeclaredIds));
+            final int size = transitions.size();
+            final int[] resultCodes = new int[size];
+            final int[] resultActions = new int[size];
+            for (int j = 0; j < size; j++) {
+                resultCodes[j] = transitions.keyAt(j);
+                resultActions[j] = getTarget(transitions.valueAt(j), undeclaredIds);
+            }
+            dest.writeIntArray(resultCodes);
+            dest.writeIntArray(resultActions);
+        }
+    }
+
+    private boolean isUndeclared(String actionId) {
+        return actionId != null && mGraph.getActionIndex(actionId) == WizardGraph.NO_ACTION;
+    }
+
+    /**
+     * @return the distinct transition targets that are not declared as actions, or null if
+     * there are none, which is the common case
+     */
+    private String[] getUndeclaredTargets() {
+        int count = isUndeclared(mFirstActionId) ? 1 : 0;
+        for (WizardAction action : mActions) {
+            final WizardTransitions transitions = action.getTransitions();
+            count += isUndeclared(transitions.getDefaultAction()) ? 1 : 0;
+            for (int j = 0; j < transitions.size(); j++) {
+                count += isUndeclared(transitions.valueAt(j)) ? 1 : 0;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        final String[] undeclaredIds = new String[count];
+        int size = addUndeclared(undeclaredIds, 0, mFirstActionId);
+        for (WizardAction action : mActions) {
+            final WizardTransitions transitions = action.getTransitions();
+            size = addUndeclared(undeclaredIds, size, transitions.getDefaultAction());
+            for (int j = 0; j < transitions.size(); j++) {
+                size = addUndeclared(undeclaredIds, size, transitions.valueAt(j));
+            }
+        }
+        return Arrays.copyOf(undeclaredIds, size);
+    }
+
+    private int addUndeclared(String[] undeclaredIds, int size, String actionId) {
+        if (!isUndeclared(actionId)
+                || Arrays.asList(undeclaredIds).subList(0, size).contains(actionId)) {
+            return size;
+        }
+        undeclaredIds[size] = actionId;
+        return size + 1;
+    }
+
+    private int getTarget(String actionId, String[] undeclaredIds) {
+        final int action = mGraph.getActionIndex(actionId);
+        if (action != WizardGraph.NO_ACTION || actionId == null) {
+            return action;
+        }
+        return mActions.length + Arrays.asList(undeclaredIds).indexOf(actionId);
     }
 
     public static final Creator<WizardScript> CREATOR = new Creator<WizardScript>() {
         public WizardScript createFromParcel(Parcel source) {
-            String firstActionId = source.readString();
-            HashMap<String, WizardAction> actions = new HashMap();
-            ArrayList<WizardAction> actionList = new ArrayList();
-            source.readTypedList(actionList, WizardAction.CREATOR);
-            for (WizardAction action : actionList) {
-                actions.put(action.getId(), action);
+            final int version = source.readInt();
+            if (version != PARCEL_VERSION) {
+                throw new BadParcelableException("Unknown WizardScript version " + version);
+            }
+            final int count = source.readInt();
+            final String[] actionIds = new String[count];
+            for (int i = 0; i < count; i++) {
+                actionIds[i] = source.readString();
+            }
+            final String[] undeclaredIds = source.createStringArray();
+            final int firstAction = source.readInt();
+            final String[] uris = new String[count];
+            final int[] defaultActions = new int[count];
+            final int[][] resultCodes = new int[count][];
+            final int[][] resultActions = new int[count][];
+            for (int i = 0; i < count; i++) {
+                uris[i] = source.readString();
+                defaultActions[i] = source.readInt();
+                resultCodes[i] = source.createIntArray();
+                resultActions[i] = source.createIntArray();
+            }
+
+            final WizardAction[] actions = new WizardAction[count];
+            for (int i = 0; i < count; i++) {
+                final WizardTransitions transitions = new WizardTransitions();
+                transitions.setDefaultAction(
+                        getTargetId(actionIds, undeclaredIds, defaultActions[i]));
+                for (int j = 0; j < resultCodes[i].length; j++) {
+                    transitions.put(resultCodes[i][j],
+                            getTargetId(actionIds, undeclaredIds, resultActions[i][j]));
+                }
+                actions[i] = new WizardAction(actionIds[i], uris[i], transitions);
             }
-            return new WizardScript(actions, firstActionId);
+            final String firstActionId = getTargetId(actionIds, undeclaredIds, firstAction);
+            // Indices of undeclared targets are past the actions, the graph lowers them.
+            return new WizardScript(actions, new WizardGraph(actionIds, firstAction,
+                    defaultActions, resultCodes, resultActions), firstActionId);
         }
 
         public WizardScript[] newArray(int size) {
@@ -133,7 +307,20 @@ public class WizardScript implements Parcelable {
         }
     };
 
+    private static String getTargetId(String[] actionIds, String[] undeclaredIds, int target) {
+        if (target == WizardGraph.NO_ACTION) {
+            return null;
+        } else if (target < actionIds.length) {
+            return actionIds[target];
+        }
+        return undeclaredIds[target - actionIds.length];
+    }
+
     public static WizardScript loadFromUri(Context context, String uriString) {
+        WizardScript compiledScript = loadCompiled(context, uriString);
+        if (compiledScript != null) {
+            return compiledScript;
+        }
         XmlPullParser xmlPullParser;
         WizardScript wizardScript = null;
         try {
@@ -175,7 +362,114 @@ public class WizardScript implements Parcelable {
         }
     }
 
-    private static WizardScript parseWizardScript(XmlPullParser parser)
+    /**
+     * Loads the build-time compiled form of one of our own raw wizard scripts, if there is one.
+     * Scripts from other packages, and ours when a runtime resource overlay replaces them,
+     * always go through the XML parser.
+     */
+    private static WizardScript loadCompiled(Context context, String uriString) {
+        final Uri uri = Uri.parse(uriString);
+        if (!ContentResolver.SCHEME_ANDROID_RESOURCE.equals(uri.getScheme())
+                || !context.getPackageName().equals(uri.getAuthority())) {
+            return null;
+        }
+        final List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !"raw".equals(segments.get(0))) {
+            return null;
+        }
+        if (isOverlaid(context, uri)) {
+            if (LOGV) {
+                Log.v(TAG, "Overlaid wizard_script, not using the compiled form: " + uriString);
+            }
+            return null;
+        }
+        final String path = WizardScriptFormat.getCompiledScriptPath(segments.get(1));
+        try (InputStream in = WizardScript.class.getClassLoader().getResourceAsStream(path)) {
+            if (in == null) {
+                return null;
+            }
+            return readCompiled(WizardScriptFormat.readFully(in));
+        } catch (IOException | BufferUnderflowException e) {
+            Log.w(TAG, "Unable to read compiled wizard_script: " + path, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return whether the resource of the uri comes from another apk than ours, which means a
+     *         runtime resource overlay, as the uri only names resources of our own package
+     */
+    private static boolean isOverlaid(Context context, Uri uri) {
+        try {
+            final ContentResolver.OpenResourceIdResult result =
+                    context.getContentResolver().getResourceId(uri);
+            final TypedValue value = new TypedValue();
+            result.r.getValue(result.id, value, true);
+            final String apkPath = result.r.getAssets().getCookieName(value.assetCookie);
+            return !context.getApplicationInfo().sourceDir.equals(apkPath);
+        } catch (FileNotFoundException | Resources.NotFoundException e) {
+            // Not a resource at all, the XML parser reports that
+            return false;
+        }
+    }
+
+    /* Visible for the benchmarks */
+    static WizardScript readCompiled(ByteBuffer in) throws IOException {
+        WizardScriptFormat.readHeader(in);
+        final String[] strings = new String[in.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = WizardScriptFormat.readString(in);
+        }
+        final int firstString = in.getInt();
+        final String firstActionId = strings[firstString];
+
+        final int count = in.getInt();
+        final String[] actionIds = new String[count];
+        final String[] uris = new String[count];
+        final int[] defaultActions = new int[count];
+        final int[][] resultCodes = new int[count][];
+        final int[][] resultActions = new int[count][];
+        // Map string indices onto action indices; undeclared ids stay NO_ACTION.
+        final int[] actionIndices = new int[strings.length];
+        Arrays.fill(actionIndices, WizardGraph.NO_ACTION);
+        for (int i = 0; i < count; i++) {
+            final int id = in.getInt();
+            actionIds[i] = strings[id];
+            actionIndices[id] = i;
+            uris[i] = WizardScriptFormat.readString(in);
+            defaultActions[i] = in.getInt();
+            final int resultCount = in.getInt();
+            resultCodes[i] = new int[resultCount];
+            resultActions[i] = new int[resultCount];
+            for (int j = 0; j < resultCount; j++) {
+                resultCodes[i][j] = in.getInt();
+                resultActions[i][j] = in.getInt();
+            }
+        }
+
+        final WizardAction[] actions = new WizardAction[count];
+        for (int i = 0; i < count; i++) {
+            final WizardTransitions transitions = new WizardTransitions();
+            if (defaultActions[i] != WizardScriptFormat.NO_ACTION) {
+                transitions.setDefaultAction(strings[defaultActions[i]]);
+                defaultActions[i] = actionIndices[defaultActions[i]];
+            }
+            for (int j = 0; j < resultCodes[i].length; j++) {
+                transitions.put(resultCodes[i][j], strings[resultActions[i][j]]);
+                resultActions[i][j] = actionIndices[resultActions[i][j]];
+            }
+            actions[i] = new WizardAction(actionIds[i], uris[i], transitions);
+        }
+        final int firstAction = actionIndices[firstString];
+        if (LOGV) {
+            Log.v(TAG, "readCompiled actions=" + count + " firstAction=" + firstActionId);
+        }
+        return new WizardScript(actions, new WizardGraph(actionIds, firstAction, defaultActions,
+                resultCodes, resultActions), firstActionId);
+    }
+
+    /* Visible for the benchmarks */
+    static WizardScript parseWizardScript(XmlPullParser parser)
             throws XmlPullParserException, IOException {
         String startTag = parser.getName();
         if (!TAG_WIZARD_SCRIPT.equals(startTag)) {
@@ -189,7 +483,7 @@ public class WizardScript implements Parcelable {
             throw new XmlPullParserException("WizardScript must define a firstAction");
         }
 
-        HashMap wizardActions = new HashMap();
+        LinkedHashMap<String, WizardAction> wizardActions = new LinkedHashMap<>();
         int type;
         final int depth = parser.getDepth();
         while (((type = parser.next()) != XmlPullParser.END_TAG ||
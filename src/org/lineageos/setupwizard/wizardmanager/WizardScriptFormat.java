@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.wizardmanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary form of a wizard script, produced at build time by the SetupWizardScriptCompiler host
+ * tool and packaged as a java resource next to the classes.
+ *
+ * <p>All values are big-endian. Strings are an int byte length followed by UTF-8 bytes.
+ * <pre>
+ *   int     MAGIC
+ *   int     VERSION
+ *   int     string count, followed by that many strings (action ids)
+ *   int     first action (string index)
+ *   int     action count, followed by that many actions:
+ *     int     id (string index)
+ *     string  intent uri
+ *     int     default next action (string index, or NO_ACTION)
+ *     int     result count, followed by that many pairs:
+ *       int     result code
+ *       int     next action (string index)
+ * </pre>
+ *
+ * This class must not depend on the Android framework, as it is shared with the host tool.
+ */
+public final class WizardScriptFormat {
+
+    public static final int MAGIC = 0x53575343; // "SWSC"
+    public static final int VERSION = 1;
+
+    public static final int NO_ACTION = -1;
+
+    public static final String COMPILED_SCRIPT_DIR = "wizard_scripts/";
+    public static final String COMPILED_SCRIPT_SUFFIX = ".bin";
+
+    private WizardScriptFormat() {
+    }
+
+    public static String getCompiledScriptPath(String scriptName) {
+        return COMPILED_SCRIPT_DIR + scriptName + COMPILED_SCRIPT_SUFFIX;
+    }
+
+    public static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    public static void readHeader(ByteBuffer in) throws IOException {
+        final int magic = in.getInt();
+        if (magic != MAGIC) {
+            throw new IOException("Bad magic 0x" + Integer.toHexString(magic));
+        }
+        final int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+    }
+
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(ByteBuffer in) {
+        final int length = in.getInt();
+        final String value = new String(in.array(), in.arrayOffset() + in.position(), length,
+                StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    public static ByteBuffer readFully(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 512));
+        final byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.wizardmanager;
+
+import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.lineageos.setupwizard.util.BackgroundExecutor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Thread-safe cache of loaded wizard scripts.
+ *
+ * <p>Each script URI is loaded at most once at a time: concurrent callers asking for the same
+ * URI share a single load and all receive the same immutable {@link WizardScript}. A script can
+ * be preloaded on a background thread; a caller that needs it before the preload got to run
+ * takes the load over on its own thread instead of waiting behind the queue.
+ */
+public class WizardScriptRegistry {
+
+    private static final String TAG = WizardScriptRegistry.class.getSimpleName();
+
+    private final Context mContext;
+    private final ConcurrentHashMap<String, FutureTask<WizardScript>> mScripts =
+            new ConcurrentHashMap<>();
+
+    public WizardScriptRegistry(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Starts loading the script in the background, unless it is already loaded or loading.
+     */
+    public void preload(String scriptUri) {
+        if (mScripts.containsKey(scriptUri)) {
+            return;
+        }
+        final FutureTask<WizardScript> task = new LoadTask(scriptUri);
+        if (mScripts.putIfAbsent(scriptUri, task) == null) {
+            if (LOGV) {
+                Log.v(TAG, "preload scriptUri=" + scriptUri);
+            }
+            BackgroundExecutor.get().execute(task);
+        }
+    }
+
+    /**
+     * @return the script, loading it on the calling thread if no other thread is already
+     * doing so, or null if it cannot be loaded
+     */
+    public WizardScript get(String scriptUri) {
+        FutureTask<WizardScript> task = mScripts.get(scriptUri);
+        if (task == null) {
+            final FutureTask<WizardScript> newTask = new LoadTask(scriptUri);
+            task = mScripts.putIfAbsent(scriptUri, newTask);
+            if (task == null) {
+                task = newTask;
+            }
+        }
+        // No-op if the load already started elsewhere, steals it from the queue otherwise.
+        task.run();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Unable to load wizard_script: " + scriptUri, e.getCause());
+            return null;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Drops the script, the next {@link #get(String)} loads it again.
+     */
+    public void remove(String scriptUri) {
+        mScripts.remove(scriptUri);
+    }
+
+    private class LoadTask extends FutureTask<WizardScript> {
+        private final String mScriptUri;
+
+        LoadTask(String scriptUri) {
+            super(() -> WizardScript.loadFromUri(mContext, scriptUri));
+            mScriptUri = scriptUri;
+        }
+
+        @Override
+        protected void done() {
+            WizardScript wizardScript = null;
+            try {
+                wizardScript = get();
+            } catch (InterruptedException | ExecutionException e) {
+                // Reported by the callers of get()
+            }
+            if (wizardScript == null) {
+                // Do not cache failures, so a later request can retry.
+                mScripts.remove(mScriptUri, this);
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.lineageos.setupwizard.wizardmanager;
 
 import static org.lineageos.setupwizard.SetupWizardApp.LOGV;
 
+import android.os.BadParcelableException;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
@@ -28,14 +29,26 @@ public class WizardTransitions extends SparseArray<String> implements Parcelable
 
     private static final String TAG = "WizardTransitions";
 
+    /* Bump when changing the layout written by writeToParcel */
+    private static final int PARCEL_VERSION = 1;
+
     private String mDefaultAction;
 
     public static final Creator<WizardTransitions> CREATOR = new Creator<WizardTransitions>() {
         public WizardTransitions createFromParcel(Parcel source) {
-            WizardTransitions transitions = new WizardTransitions(source);
-            SparseArray<String> actions = source.readSparseArray(null);
-            for (int i = 0; i < actions.size(); i++) {
-                transitions.put(actions.keyAt(i), actions.valueAt(i));
+            final int version = source.readInt();
+            if (version != PARCEL_VERSION) {
+                throw new BadParcelableException("Unknown WizardTransitions version "
+                        + version);
+            }
+            final String defaultAction = source.readString();
+            final int size = source.readInt();
+            WizardTransitions transitions = new WizardTransitions(size);
+            transitions.setDefaultAction(defaultAction);
+            for (int i = 0; i < size; i++) {
+                // Written in key order, so every put appends
+                final int resultCode = source.readInt();
+                transitions.put(resultCode, source.readString());
             }
             return transitions;
         }
@@ -48,10 +61,18 @@ public class WizardTransitions extends SparseArray<String> implements Parcelable
     public WizardTransitions() {
     }
 
+    private WizardTransitions(int initialCapacity) {
+        super(initialCapacity);
+    }
+
     public void setDefaultAction(String action) {
         mDefaultAction = action;
     }
 
+    public String getDefaultAction() {
+        return mDefaultAction;
+    }
+
     public String getAction(int resultCode) {
         return get(resultCode, mDefaultAction);
     }
@@ -90,19 +111,20 @@ public class WizardTransitions extends SparseArray<String> implements Parcelable
         return 0;
     }
 
+    /**
+     * Writes the version, the default action and the result code and action of each
+     * transition, without the per-value type tags of a generic SparseArray.
+     */
     @Override
     public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(PARCEL_VERSION);
         dest.writeString(mDefaultAction);
-        int size = size();
-        SparseArray sparseArray = new SparseArray<>(size);
+        final int size = size();
+        dest.writeInt(size);
         for (int i = 0; i < size; i++) {
-            sparseArray.put(keyAt(i), valueAt(i));
+            dest.writeInt(keyAt(i));
+            dest.writeString(valueAt(i));
         }
-        dest.writeSparseArray(sparseArray);
-    }
-
-    protected WizardTransitions(Parcel in) {
-        mDefaultAction = in.readString();
     }
 
 }
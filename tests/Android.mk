@@ -7,6 +7,11 @@ LOCAL_PRIVILEGED_MODULE := true
 
 # Include all test java files.
 LOCAL_SRC_FILES := $(call all-java-files-under, src)
+# Stand-in for the captive portal servers, shared with the portal harness
+LOCAL_SRC_FILES += ../benchmarks/portal/src/org/lineageos/setupwizard/util/StandInServer.java
+
+LOCAL_JAVA_LIBRARIES := android.test.runner android.test.base
+LOCAL_INSTRUMENTATION_FOR := SetupWizard
 
 LOCAL_PACKAGE_NAME := SetupWizardTests
 LOCAL_CERTIFICATE := platform
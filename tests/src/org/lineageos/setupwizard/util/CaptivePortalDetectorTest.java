@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.util;
+
+import android.net.Network;
+import android.net.NetworkCapabilities;
+
+import org.lineageos.setupwizard.util.StandInServer.Response;
+
+import junit.framework.TestCase;
+
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+public class CaptivePortalDetectorTest extends TestCase {
+
+    private static final String HTTP_PATH = "/generate_204";
+    private static final String HTTPS_PATH = "/https/generate_204";
+
+    private static final int SOCKET_TIMEOUT_MS = 2000;
+
+    // Verdicts are cached by network, so every test probes a network of its own
+    private static int sNextNetId = 1000;
+
+    private StandInServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        mServer = new StandInServer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+    }
+
+    public void testValidatedWithoutPlatformDetectionProbes() throws Exception {
+        mServer.script(HTTP_PATH, Response.redirect("http://portal.example/login"));
+        mServer.script(HTTPS_PATH, Response.stall());
+        final NetworkSnapshot snapshot =
+                snapshot(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+
+        assertTrue(check(snapshot, false));
+        assertTrue(mServer.getRequestCount() > 0);
+    }
+
+    public void testValidatedWithoutPlatformDetectionNoPortal() throws Exception {
+        mServer.script(HTTP_PATH, Response.status(204));
+        mServer.script(HTTPS_PATH, Response.status(204));
+        final NetworkSnapshot snapshot =
+                snapshot(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+
+        assertFalse(check(snapshot, false));
+        assertTrue(mServer.getRequestCount() > 0);
+    }
+
+    public void testValidatedWithPlatformDetectionTrustsPlatform() throws Exception {
+        mServer.script(HTTP_PATH, Response.redirect("http://portal.example/login"));
+        final NetworkSnapshot snapshot =
+                snapshot(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+
+        assertFalse(check(snapshot, true));
+        assertEquals(0, mServer.getRequestCount());
+    }
+
+    public void testPlatformCaptivePortalTrusted() throws Exception {
+        mServer.script(HTTP_PATH, Response.status(204));
+        final NetworkSnapshot snapshot =
+                snapshot(NetworkCapabilities.NET_CAPABILITY_CAPTIVE_PORTAL);
+
+        assertTrue(check(snapshot, false));
+        assertEquals(0, mServer.getRequestCount());
+    }
+
+    private static NetworkSnapshot snapshot(int capability) {
+        final Network network = new Network(sNextNetId++);
+        final NetworkCapabilities capabilities = new NetworkCapabilities();
+        capabilities.addTransportType(NetworkCapabilities.TRANSPORT_WIFI);
+        capabilities.addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        capabilities.addCapability(capability);
+        return NetworkSnapshot.EMPTY.withNetwork(network, capabilities)
+                .withDefaultNetwork(network);
+    }
+
+    private boolean check(NetworkSnapshot snapshot, boolean platformDetects)
+            throws Exception {
+        final URL httpUrl = mServer.getUrl(HTTP_PATH);
+        final URL httpsUrl = mServer.getUrl(HTTPS_PATH);
+        final Function<Network, CompletableFuture<Boolean>> detect = network -> {
+            final CaptivePortalProbes probes =
+                    new CaptivePortalProbes(URL::openConnection, SOCKET_TIMEOUT_MS);
+            probes.add(httpUrl, false);
+            probes.add(httpsUrl, true);
+            return new CaptivePortalDetector(network, probes, 0).detect();
+        };
+        return CaptivePortalDetector.check(snapshot, platformDetects, detect)
+                .get(2L * SOCKET_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.wizardmanager;
+
+import android.app.Activity;
+import android.os.Parcel;
+
+import junit.framework.TestCase;
+
+public class WizardActionParcelTest extends TestCase {
+
+    private static final String ID = "welcome";
+    private static final String URI =
+            "intent:#Intent;action=org.lineageos.setupwizard.LINEAGE_WELCOME;end";
+
+    public void testRoundTrip() {
+        final WizardTransitions transitions = new WizardTransitions();
+        transitions.setDefaultAction("locale");
+        transitions.put(Activity.RESULT_FIRST_USER, "finish");
+        final WizardAction action = new WizardAction(ID, URI, transitions);
+
+        final Parcel parcel = Parcel.obtain();
+        try {
+            action.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            final WizardAction copy = WizardAction.CREATOR.createFromParcel(parcel);
+
+            assertEquals(ID, copy.getId());
+            assertEquals(URI, copy.getUri());
+            assertEquals("locale", copy.getTransitions().getDefaultAction());
+            assertEquals("finish", copy.getTransitions().getAction(Activity.RESULT_FIRST_USER));
+            assertEquals(action, copy);
+            assertEquals(parcel.dataSize(), parcel.dataPosition());
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
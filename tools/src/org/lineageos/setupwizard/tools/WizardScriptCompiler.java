@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.tools;
+
+import org.lineageos.setupwizard.wizardmanager.WizardScriptFormat;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Validates wizard script XML and compiles it into the binary form described in
+ * {@link WizardScriptFormat}. Scripts that fail validation are not compiled and fail the build.
+ *
+ * <pre>
+ *   SetupWizardScriptCompiler [-v] -o OUT_DIR SCRIPT.xml...
+ * </pre>
+ * With -v, the shortest and longest path through each script are printed.
+ */
+public class WizardScriptCompiler {
+
+    static final String WIZARD_SCRIPT_NAMESPACE =
+            "http://schemas.android.com/apk/res/com.google.android.setupwizard";
+
+    static final String TAG_WIZARD_SCRIPT = "WizardScript";
+    static final String TAG_WIZARD_ACTION = "WizardAction";
+    static final String TAG_RESULT = "result";
+    static final String ATTR_ID = "id";
+    static final String ATTR_URI = "uri";
+    static final String ATTR_ACTION = "action";
+    static final String ATTR_FIRST_ACTION = "firstAction";
+    static final String ATTR_RESULT_CODE = "resultCode";
+
+    static class Action {
+        String id;
+        String uri;
+        String defaultAction;
+        final List<Integer> resultCodes = new ArrayList<>();
+        final List<String> resultActions = new ArrayList<>();
+    }
+
+    static class Script {
+        String firstActionId;
+        final List<Action> actions = new ArrayList<>();
+    }
+
+    public static void main(String[] args) {
+        File outDir = null;
+        boolean verbose = false;
+        List<File> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-v".equals(args[i])) {
+                verbose = true;
+            } else if ("-o".equals(args[i]) && i + 1 < args.length) {
+                outDir = new File(args[++i]);
+            } else {
+                inputs.add(new File(args[i]));
+            }
+        }
+        if (outDir == null || inputs.isEmpty()) {
+            System.err.println("usage: SetupWizardScriptCompiler [-v] -o OUT_DIR SCRIPT.xml...");
+            System.exit(2);
+        }
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            System.err.println("Cannot create " + outDir);
+            System.exit(1);
+        }
+
+        for (File input : inputs) {
+            try {
+                compile(input, outDir, verbose);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Validates one script and compiles it into outDir. Warnings and validation errors are
+     * printed to stderr; unlike {@link #main(String[])} this never exits, so tools can call it.
+     *
+     * @return the compiled script
+     * @throws IOException if the script cannot be parsed, fails validation or cannot be written
+     */
+    public static File compile(File input, File outDir, boolean verbose) throws IOException {
+        String name = input.getName();
+        if (name.endsWith(".xml")) {
+            name = name.substring(0, name.length() - ".xml".length());
+        }
+        File output = new File(outDir, name + WizardScriptFormat.COMPILED_SCRIPT_SUFFIX);
+        Script script;
+        try {
+            script = parse(input);
+        } catch (Exception e) {
+            throw new IOException(input + ": " + e.getMessage(), e);
+        }
+
+        WizardScriptValidator.Report report = WizardScriptValidator.validate(script);
+        for (String warning : report.warnings) {
+            System.err.println(input + ": warning: " + warning);
+        }
+        for (String error : report.errors) {
+            System.err.println(input + ": error: " + error);
+        }
+        if (report.hasErrors()) {
+            throw new IOException(input + ": " + report.errors.size() + " validation errors");
+        }
+        if (verbose) {
+            System.out.println(input + ": " + report.graph.getActionCount()
+                    + " actions, shortest path " + formatPath(report.shortestPath)
+                    + ", longest path " + formatPath(report.longestPath));
+        }
+
+        try {
+            write(script, output);
+        } catch (IOException e) {
+            throw new IOException(output + ": " + e.getMessage(), e);
+        }
+        return output;
+    }
+
+    private static String formatPath(int pages) {
+        return pages == WizardScriptValidator.UNBOUNDED ? "unbounded" : pages + " pages";
+    }
+
+    static Script parse(File input) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        Document document = builder.parse(input);
+
+        Element root = document.getDocumentElement();
+        if (!TAG_WIZARD_SCRIPT.equals(root.getTagName())) {
+            throw new IOException("XML document must start with <WizardScript> tag; found "
+                    + root.getTagName());
+        }
+        Script script = new Script();
+        script.firstActionId = getAttribute(root, WIZARD_SCRIPT_NAMESPACE, ATTR_FIRST_ACTION);
+        if (script.firstActionId == null) {
+            throw new IOException("WizardScript must define a firstAction");
+        }
+
+        NodeList children = root.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node node = children.item(i);
+            if (node instanceof Element
+                    && TAG_WIZARD_ACTION.equals(((Element) node).getTagName())) {
+                script.actions.add(parseAction((Element) node));
+            }
+        }
+        return script;
+    }
+
+    private static Action parseAction(Element element) throws IOException {
+        Action action = new Action();
+        action.id = getAttribute(element, null, ATTR_ID);
+        action.uri = getAttribute(element, WIZARD_SCRIPT_NAMESPACE, ATTR_URI);
+        if (action.id == null) {
+            throw new IOException("WizardAction must define an id");
+        }
+        if (action.uri == null) {
+            throw new IOException("WizardAction must define an intent URI");
+        }
+
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node node = children.item(i);
+            if (!(node instanceof Element)
+                    || !TAG_RESULT.equals(((Element) node).getTagName())) {
+                continue;
+            }
+            Element result = (Element) node;
+            String resultCode = getAttribute(result, WIZARD_SCRIPT_NAMESPACE, ATTR_RESULT_CODE);
+            String next = getAttribute(result, WIZARD_SCRIPT_NAMESPACE, ATTR_ACTION);
+            if (resultCode == null) {
+                action.defaultAction = next;
+            } else {
+                action.resultCodes.add(Integer.valueOf(resultCode));
+                action.resultActions.add(next);
+            }
+        }
+        return action;
+    }
+
+    private static String getAttribute(Element element, String namespace, String name) {
+        String value = namespace == null
+                ? element.getAttribute(name)
+                : element.getAttributeNS(namespace, name);
+        return value.isEmpty() ? null : value;
+    }
+
+    static void write(Script script, File output) throws IOException {
+        // Declared actions take the first string indices, in document order, so the runtime
+        // can map string indices straight onto action indices.
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> indices = new HashMap<>();
+        for (Action action : script.actions) {
+            intern(action.id, strings, indices);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(output)))) {
+            int firstAction = intern(script.firstActionId, strings, indices);
+            int[][] nextActions = new int[script.actions.size()][];
+            int[] defaultActions = new int[script.actions.size()];
+            for (int i = 0; i < script.actions.size(); i++) {
+                Action action = script.actions.get(i);
+                defaultActions[i] = intern(action.defaultAction, strings, indices);
+                nextActions[i] = new int[action.resultActions.size()];
+                for (int j = 0; j < nextActions[i].length; j++) {
+                    nextActions[i][j] = intern(action.resultActions.get(j), strings, indices);
+                }
+            }
+
+            WizardScriptFormat.writeHeader(out);
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                WizardScriptFormat.writeString(out, string);
+            }
+            out.writeInt(firstAction);
+            out.writeInt(script.actions.size());
+            for (int i = 0; i < script.actions.size(); i++) {
+                Action action = script.actions.get(i);
+                out.writeInt(indices.get(action.id));
+                WizardScriptFormat.writeString(out, action.uri);
+                out.writeInt(defaultActions[i]);
+                out.writeInt(nextActions[i].length);
+                for (int j = 0; j < nextActions[i].length; j++) {
+                    out.writeInt(action.resultCodes.get(j));
+                    out.writeInt(nextActions[i][j]);
+                }
+            }
+        }
+    }
+
+    private static int intern(String value, List<String> strings, Map<String, Integer> indices) {
+        if (value == null) {
+            return WizardScriptFormat.NO_ACTION;
+        }
+        Integer index = indices.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.add(value);
+            indices.put(value, index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.tools;
+
+import org.lineageos.setupwizard.wizardmanager.WizardGraph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks a parsed wizard script before it gets compiled.
+ *
+ * <p>Duplicate action ids and transitions to actions that are not declared are errors, as the
+ * runtime would end the flow there. Actions that cannot be reached from the first action and
+ * cycles are reported as warnings. For valid scripts the number of pages on the shortest and
+ * longest path through the script is computed as well.
+ */
+class WizardScriptValidator {
+
+    static final int UNBOUNDED = -1;
+
+    private static final byte UNVISITED = 0;
+    private static final byte VISITING = 1;
+    private static final byte VISITED = 2;
+
+    static class Report {
+        final List<String> errors = new ArrayList<>();
+        final List<String> warnings = new ArrayList<>();
+        WizardGraph graph;
+        int shortestPath;
+        int longestPath;
+
+        boolean hasErrors() {
+            return !errors.isEmpty();
+        }
+    }
+
+    static Report validate(WizardScriptCompiler.Script script) {
+        Report report = new Report();
+        Map<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < script.actions.size(); i++) {
+            String id = script.actions.get(i).id;
+            if (indices.put(id, i) != null) {
+                report.errors.add("Duplicate action id " + id);
+            }
+        }
+        if (!indices.containsKey(script.firstActionId)) {
+            report.errors.add("firstAction points to undeclared action "
+                    + script.firstActionId);
+        }
+        for (WizardScriptCompiler.Action action : script.actions) {
+            checkTarget(report, indices, action, "default result", action.defaultAction);
+            for (int i = 0; i < action.resultActions.size(); i++) {
+                checkTarget(report, indices, action,
+                        "result " + action.resultCodes.get(i), action.resultActions.get(i));
+            }
+        }
+        if (report.hasErrors()) {
+            return report;
+        }
+
+        report.graph = toGraph(script, indices);
+        analyze(report);
+        return report;
+    }
+
+    private static void checkTarget(Report report, Map<String, Integer> indices,
+            WizardScriptCompiler.Action action, String transition, String target) {
+        // A missing target is an explicit end of the flow.
+        if (target != null && !indices.containsKey(target)) {
+            report.errors.add("Action " + action.id + ": " + transition
+                    + " points to undeclared action " + target);
+        }
+    }
+
+    static WizardGraph toGraph(WizardScriptCompiler.Script script, Map<String, Integer> indices) {
+        final int count = script.actions.size();
+        String[] actionIds = new String[count];
+        int[] defaultActions = new int[count];
+        int[][] resultCodes = new int[count][];
+        int[][] resultActions = new int[count][];
+        for (int i = 0; i < count; i++) {
+            WizardScriptCompiler.Action action = script.actions.get(i);
+            actionIds[i] = action.id;
+            defaultActions[i] = indexOf(indices, action.defaultAction);
+            resultCodes[i] = new int[action.resultCodes.size()];
+            resultActions[i] = new int[action.resultActions.size()];
+            for (int j = 0; j < resultCodes[i].length; j++) {
+                resultCodes[i][j] = action.resultCodes.get(j);
+                resultActions[i][j] = indexOf(indices, action.resultActions.get(j));
+            }
+        }
+        return new WizardGraph(actionIds, indexOf(indices, script.firstActionId),
+                defaultActions, resultCodes, resultActions);
+    }
+
+    private static int indexOf(Map<String, Integer> indices, String actionId) {
+        Integer index = actionId != null ? indices.get(actionId) : null;
+        return index != null ? index : WizardGraph.NO_ACTION;
+    }
+
+    /**
+     * Successors of an action; {@link WizardGraph#NO_ACTION} stands for the end of the flow,
+     * which is also taken for any result code without a transition of its own when there is
+     * no default transition.
+     */
+    private static int[] successors(WizardGraph graph, int action) {
+        final int count = graph.getResultCount(action);
+        int[] next = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            next[i] = graph.getResultAction(action, i);
+        }
+        next[count] = graph.getDefaultAction(action);
+        return next;
+    }
+
+    private static void analyze(Report report) {
+        final WizardGraph graph = report.graph;
+        final int count = graph.getActionCount();
+        final int first = graph.getFirstAction();
+
+        // Breadth first from the first action gives reachability and the shortest path.
+        int[] depth = new int[count];
+        Arrays.fill(depth, -1);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        depth[first] = 1;
+        queue.add(first);
+        int shortest = UNBOUNDED;
+        while (!queue.isEmpty()) {
+            final int action = queue.poll();
+            for (int next : successors(graph, action)) {
+                if (next == WizardGraph.NO_ACTION) {
+                    if (shortest == UNBOUNDED) {
+                        shortest = depth[action];
+                    }
+                } else if (depth[next] == -1) {
+                    depth[next] = depth[action] + 1;
+                    queue.add(next);
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (depth[i] == -1) {
+                report.warnings.add("Action " + graph.getActionId(i)
+                        + " is not reachable from " + graph.getActionId(first));
+            }
+        }
+        if (shortest == UNBOUNDED) {
+            report.warnings.add("No path from " + graph.getActionId(first)
+                    + " ends the flow");
+        }
+        report.shortestPath = shortest;
+
+        // Depth first for cycles; without any the longest path falls out of the same walk.
+        int[] longest = new int[count];
+        boolean cyclic = longestPath(graph, first, longest, report);
+        report.longestPath = cyclic ? UNBOUNDED : longest[first];
+    }
+
+    /**
+     * Walks the actions reachable from the first one depth first, computing the longest path
+     * from each one in post-order. The walk keeps its own stack rather than recursing, so a
+     * long chain of actions cannot overflow the call stack.
+     *
+     * @return whether a cycle is reachable from the first action
+     */
+    private static boolean longestPath(WizardGraph graph, int first, int[] longest,
+            Report report) {
+        final int count = graph.getActionCount();
+        byte[] state = new byte[count];
+        // An action is on the stack at most once, while it is being visited.
+        int[] stack = new int[count];
+        int[][] successors = new int[count][];
+        int[] cursors = new int[count];
+        int top = 0;
+        stack[0] = first;
+        successors[0] = successors(graph, first);
+        state[first] = VISITING;
+        longest[first] = 1;
+        boolean cyclic = false;
+        while (top >= 0) {
+            final int action = stack[top];
+            if (cursors[top] < successors[top].length) {
+                final int next = successors[top][cursors[top]++];
+                if (next == WizardGraph.NO_ACTION) {
+                    continue;
+                }
+                if (state[next] == VISITING) {
+                    report.warnings.add("Cycle: " + graph.getActionId(action) + " -> "
+                            + graph.getActionId(next));
+                    cyclic = true;
+                } else if (state[next] == UNVISITED) {
+                    top++;
+                    stack[top] = next;
+                    successors[top] = successors(graph, next);
+                    cursors[top] = 0;
+                    state[next] = VISITING;
+                    longest[next] = 1;
+                } else {
+                    longest[action] = Math.max(longest[action], longest[next] + 1);
+                }
+            } else {
+                state[action] = VISITED;
+                successors[top] = null;
+                top--;
+                if (top >= 0) {
+                    final int parent = stack[top];
+                    longest[parent] = Math.max(longest[parent], longest[action] + 1);
+                }
+            }
+        }
+        return cyclic;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.setupwizard.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class WizardScriptValidatorTest {
+
+    private static String id(int action) {
+        return "action_" + action;
+    }
+
+    /**
+     * @return a script of actions that each lead to the next one, the last one ends the flow
+     */
+    private static WizardScriptCompiler.Script chain(int count) {
+        WizardScriptCompiler.Script script = new WizardScriptCompiler.Script();
+        script.firstActionId = id(0);
+        for (int i = 0; i < count; i++) {
+            WizardScriptCompiler.Action action = new WizardScriptCompiler.Action();
+            action.id = id(i);
+            action.uri = "intent:#Intent;action=ACTION_" + i + ";end";
+            action.defaultAction = i + 1 < count ? id(i + 1) : null;
+            script.actions.add(action);
+        }
+        return script;
+    }
+
+    @Test
+    public void longChain() {
+        // Deep enough to overflow the call stack when walked recursively
+        final int count = 100000;
+        WizardScriptValidator.Report report = WizardScriptValidator.validate(chain(count));
+        assertFalse(report.hasErrors());
+        assertTrue(report.warnings.isEmpty());
+        assertEquals(count, report.shortestPath);
+        assertEquals(count, report.longestPath);
+    }
+
+    @Test
+    public void skipTakesShortestPath() {
+        WizardScriptCompiler.Script script = chain(5);
+        // action_1 may skip straight to action_4
+        script.actions.get(1).resultCodes.add(1);
+        script.actions.get(1).resultActions.add(id(4));
+        WizardScriptValidator.Report report = WizardScriptValidator.validate(script);
+        assertFalse(report.hasErrors());
+        assertEquals(3, report.shortestPath);
+        assertEquals(5, report.longestPath);
+    }
+
+    @Test
+    public void cycleIsUnbounded() {
+        WizardScriptCompiler.Script script = chain(5);
+        script.actions.get(3).resultCodes.add(1);
+        script.actions.get(3).resultActions.add(id(1));
+        WizardScriptValidator.Report report = WizardScriptValidator.validate(script);
+        assertFalse(report.hasErrors());
+        assertEquals(1, report.warnings.size());
+        assertEquals(5, report.shortestPath);
+        assertEquals(WizardScriptValidator.UNBOUNDED, report.longestPath);
+    }
+}